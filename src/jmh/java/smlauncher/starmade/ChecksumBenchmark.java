@@ -0,0 +1,74 @@
+package smlauncher.starmade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares hashing a game file with {@link FileUtil#getSha1Checksum(File)} against the stream based method it
+ * replaced, for a small file and a file large enough to be memory-mapped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+	@Param({"2048", "67108864"})
+	public int size;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = File.createTempFile("checksum-benchmark", ".bin");
+		byte[] buffer = new byte[64 * 1024];
+		Random random = new Random(size);
+		try(OutputStream out = new FileOutputStream(file)) {
+			for(int left = size; left > 0; left -= buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, Math.min(left, buffer.length));
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public String current() throws IOException {
+		return FileUtil.getSha1Checksum(file);
+	}
+
+	@Benchmark
+	public String previous() throws IOException, NoSuchAlgorithmException {
+		byte[] b;
+		try(InputStream fis = new BufferedInputStream(new FileInputStream(file))) {
+			byte[] buffer = new byte[1024];
+			MessageDigest complete = MessageDigest.getInstance("SHA1");
+			int numRead;
+			while((numRead = fis.read(buffer)) != -1) complete.update(buffer, 0, numRead);
+			b = complete.digest();
+		}
+		String result = "";
+		for(int i = 0; i < b.length; i++) {
+			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+		}
+		return result;
+	}
+
+}
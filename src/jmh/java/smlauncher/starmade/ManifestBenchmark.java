@@ -0,0 +1,65 @@
+package smlauncher.starmade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a text checksum file of 50,000 entries with reading its cached binary form from
+ * {@link ManifestCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestBenchmark {
+
+	private static final int ENTRIES = 50000;
+
+	private byte[] text;
+	private File binary;
+
+	@Setup
+	public void setUp() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		Random random = new Random(1);
+		byte[] checksum = new byte[20];
+		for(int i = 0; i < ENTRIES; i++) {
+			random.nextBytes(checksum);
+			sb.append("./data/dir").append(i % 97).append("/file ").append(i).append(".txt ");
+			sb.append(random.nextInt(1 << 20)).append(' ').append(FileUtil.toHexString(checksum)).append('\n');
+		}
+		text = sb.toString().getBytes(StandardCharsets.UTF_8);
+		binary = File.createTempFile("manifest-benchmark", ".bin");
+		ManifestCache.write(parseText(), binary);
+	}
+
+	@TearDown
+	public void tearDown() {
+		binary.delete();
+	}
+
+	@Benchmark
+	public ChecksumFile parseText() throws IOException {
+		ChecksumFile checksums = new ChecksumFile();
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(text), StandardCharsets.UTF_8))) {
+			checksums.parse(in);
+		}
+		return checksums;
+	}
+
+	@Benchmark
+	public ChecksumFile readBinary() throws IOException {
+		return ManifestCache.read(binary);
+	}
+
+}
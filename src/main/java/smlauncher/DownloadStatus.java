@@ -10,6 +10,7 @@ public class DownloadStatus {
 	private float installProgress;
 	private String filename = "None";
 	private long downloadedMb, totalMb, speedMb;
+	private long eta = -1;
 
 	// Setter Methods
 
@@ -20,6 +21,13 @@ public class DownloadStatus {
 		else return bytes / (1024 * 1024 * 1024) + " GB";
 	}
 
+	private static String formatTime(long millis) {
+		long seconds = millis / 1000;
+		if(seconds < 60) return seconds + "s";
+		else if(seconds < 60 * 60) return seconds / 60 + "m " + seconds % 60 + "s";
+		else return seconds / (60 * 60) + "h " + seconds / 60 % 60 + "m";
+	}
+
 	public void setInstallProgress(float installProgress) {
 		this.installProgress = installProgress;
 	}
@@ -42,11 +50,16 @@ public class DownloadStatus {
 		this.speedMb = speedMb;
 	}
 
+	public void setEta(long eta) {
+		this.eta = eta;
+	}
+
 	@Override
 	public String toString() {
 		return String.format(
-				"Updating... [%d%%]\nDownloading %s [%s / %s] at %s/s",
-				(int) (installProgress * 100), filename, formatBytes(downloadedMb), formatBytes(totalMb), formatBytes(speedMb)
+				"Updating... [%d%%]\nDownloading %s [%s / %s] at %s/s%s",
+				(int) (installProgress * 100), filename, formatBytes(downloadedMb), formatBytes(totalMb), formatBytes(speedMb),
+				eta >= 0 ? ", " + formatTime(eta) + " left" : ""
 		);
 	}
 }
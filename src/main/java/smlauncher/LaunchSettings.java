@@ -37,6 +37,12 @@ public final class LaunchSettings {
 				launchSettings = new JSONObject(TextFileUtil.readText(jsonFile));
 			} catch(IOException e) {
 				System.out.println("Could not read launch settings from file");
+				launchSettings = defaultSettings;
+				return;
+			}
+			// Add settings missing from older files
+			for(String key : defaultSettings.keySet()) {
+				if(!launchSettings.has(key)) launchSettings.put(key, defaultSettings.get(key));
 			}
 		}
 	}
@@ -58,6 +64,14 @@ public final class LaunchSettings {
 		settings.put("lastUsedVersion", "NONE");
 		settings.put("launchArgs", "");
 		settings.put("memory", 4096);
+		settings.put("ssdInstall", true);
+		settings.put("downloadStreams", 6);
+		settings.put("chunkedDownloadMb", 32);
+		settings.put("downloadLimitKb", 0); // KB/s, 0 is unlimited
+		settings.put("sharedObjectStore", false);
+		settings.put("cachedBuilds", 0);
+		settings.put("incrementalBackups", false);
+		settings.put("backupGenerations", 10); // 0 keeps all
 		return settings;
 	}
 
@@ -111,4 +125,68 @@ public final class LaunchSettings {
 		launchSettings.put("memory", memory);
 	}
 
+	public static boolean isSsdInstall() {
+		return launchSettings.getBoolean("ssdInstall");
+	}
+
+	public static void setSsdInstall(boolean ssdInstall) {
+		launchSettings.put("ssdInstall", ssdInstall);
+	}
+
+	public static int getDownloadStreams() {
+		return launchSettings.getInt("downloadStreams");
+	}
+
+	public static void setDownloadStreams(int downloadStreams) {
+		launchSettings.put("downloadStreams", downloadStreams);
+	}
+
+	public static int getChunkedDownloadMb() {
+		return launchSettings.getInt("chunkedDownloadMb");
+	}
+
+	public static void setChunkedDownloadMb(int chunkedDownloadMb) {
+		launchSettings.put("chunkedDownloadMb", chunkedDownloadMb);
+	}
+
+	public static int getDownloadLimitKb() {
+		return launchSettings.getInt("downloadLimitKb");
+	}
+
+	public static void setDownloadLimitKb(int downloadLimitKb) {
+		launchSettings.put("downloadLimitKb", downloadLimitKb);
+	}
+
+	public static boolean isSharedObjectStore() {
+		return launchSettings.getBoolean("sharedObjectStore");
+	}
+
+	public static void setSharedObjectStore(boolean sharedObjectStore) {
+		launchSettings.put("sharedObjectStore", sharedObjectStore);
+	}
+
+	public static int getCachedBuilds() {
+		return launchSettings.getInt("cachedBuilds");
+	}
+
+	public static void setCachedBuilds(int cachedBuilds) {
+		launchSettings.put("cachedBuilds", cachedBuilds);
+	}
+
+	public static boolean isIncrementalBackups() {
+		return launchSettings.getBoolean("incrementalBackups");
+	}
+
+	public static void setIncrementalBackups(boolean incrementalBackups) {
+		launchSettings.put("incrementalBackups", incrementalBackups);
+	}
+
+	public static int getBackupGenerations() {
+		return launchSettings.getInt("backupGenerations");
+	}
+
+	public static void setBackupGenerations(int backupGenerations) {
+		launchSettings.put("backupGenerations", backupGenerations);
+	}
+
 }
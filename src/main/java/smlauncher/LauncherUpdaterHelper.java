@@ -20,7 +20,7 @@ public class LauncherUpdaterHelper {
 
 	private static final String DOWNLOAD_URL = "https://www.star-made.org/download";
 	private static final String UPDATE_URL_BASE = "https://github.com/garretreichenbach/New-StarMade-Launcher/releases/download/v";
-	private static final String INDEX_URL = "https://raw.githubusercontent.com/garretreichenbach/New-StarMade-Launcher/main/versions.json";
+	static final String INDEX_URL = "https://raw.githubusercontent.com/garretreichenbach/New-StarMade-Launcher/main/versions.json";
 
 	/**
 	 * Checks whether the launcher should be updated.
@@ -72,8 +72,9 @@ public class LauncherUpdaterHelper {
 	// Helper Methods
 
 	private static String getLatestVersion() {
-		try(InputStream stream = new URL(INDEX_URL).openStream()) {
-			String indexJSON = new String(getBytesFromInputStream(stream), StandardCharsets.UTF_8);
+		try {
+			// Shared by all checks, so the index is only downloaded once
+			String indexJSON = new String(RemoteMetadata.get(INDEX_URL), StandardCharsets.UTF_8);
 			JSONObject index = new JSONObject(indexJSON);
 			JSONArray versions = index.getJSONArray("versions");
 			JSONObject latestVersion = versions.getJSONObject(versions.length() - 1);
@@ -0,0 +1,114 @@
+package smlauncher;
+
+import smlauncher.util.HttpCache;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the small files the launcher reads from the servers, like the launcher version index, version lists and the
+ * mirror list, and shares them between everything that needs them. Each file is requested once and in the background,
+ * so all callers during startup wait for the same request instead of downloading the file again. Files are requested
+ * again once they are a few minutes old.
+ */
+public final class RemoteMetadata {
+
+	private static final long MAX_AGE = 5 * 60 * 1000;
+	private static final Map<String, Resource> resources = new ConcurrentHashMap<>();
+	private static VersionRegistry versionRegistry;
+
+	private RemoteMetadata() {
+	}
+
+	/**
+	 * Starts loading files in the background, so they are ready when they are needed.
+	 *
+	 * @param urls the URLs of the files
+	 */
+	public static void prefetch(String... urls) {
+		for(String url : urls) fetch(url);
+	}
+
+	/**
+	 * Gets a file, starting to load it unless it is already loaded or loading.
+	 *
+	 * @param url the URL of the file
+	 * @return completes with the contents of the file, or exceptionally if it could not be loaded
+	 */
+	public static CompletableFuture<byte[]> fetch(String url) {
+		return resources.compute(url, (key, resource) -> resource != null && !resource.isExpired() ? resource : load(key)).future;
+	}
+
+	/**
+	 * Gets a file and waits until it is loaded.
+	 *
+	 * @param url the URL of the file
+	 * @return the contents of the file
+	 * @throws IOException if the file could not be loaded
+	 */
+	public static byte[] get(String url) throws IOException {
+		try {
+			return fetch(url).join();
+		} catch(CompletionException exception) {
+			if(exception.getCause() instanceof IOException) throw (IOException) exception.getCause();
+			throw new IOException(exception.getCause());
+		}
+	}
+
+	/**
+	 * Gets a file as text and waits until it is loaded.
+	 *
+	 * @param url the URL of the file
+	 * @return a reader over the file's lines
+	 * @throws IOException if the file could not be loaded
+	 */
+	public static BufferedReader getReader(String url) throws IOException {
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(get(url)), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Gets the registry of game versions shared by the launcher, and starts loading it the first time.
+	 *
+	 * @return the version registry, which may still be loading
+	 */
+	public static synchronized VersionRegistry getVersionRegistry() {
+		if(versionRegistry == null) {
+			versionRegistry = new VersionRegistry();
+			versionRegistry.loadRegistry();
+		}
+		return versionRegistry;
+	}
+
+	private static Resource load(String url) {
+		Resource resource = new Resource();
+		Thread thread = new Thread(() -> {
+			try {
+				resource.future.complete(HttpCache.get(url));
+			} catch(Throwable e) {
+				// Don't keep failures, so the next caller tries again
+				resources.remove(url, resource);
+				resource.future.completeExceptionally(e);
+			}
+		}, "RemoteMetadata");
+		thread.setDaemon(true);
+		thread.start();
+		return resource;
+	}
+
+	private static final class Resource {
+		private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+		private final long created = System.currentTimeMillis();
+
+		private boolean isExpired() {
+			return future.isDone() && System.currentTimeMillis() - created > MAX_AGE;
+		}
+	}
+
+}
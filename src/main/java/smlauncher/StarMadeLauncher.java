@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Main class for the StarMade Launcher.
@@ -58,6 +59,7 @@ public class StarMadeLauncher extends JFrame {
 	private JPanel centerPanel;
 	private JPanel footerPanel;
 	private JPanel versionPanel;
+	private Consumer<GameBranch> versionListener;
 	private JPanel playPanel;
 	private JPanel serverPanel;
 	private JPanel playPanelButtons;
@@ -81,22 +83,35 @@ public class StarMadeLauncher extends JFrame {
 			System.out.println("Could not set window icon");
 		}
 
-		// Fetch game versions
-		versionRegistry = new VersionRegistry();
-		try {
-			versionRegistry.createRegistry();
-		} catch(Exception exception) {
-			System.out.println("Could not load versions list, switching to offline");
-			//Todo: Offline Mode
-		}
+		// Fetch game versions, all branches at the same time
+		versionRegistry = RemoteMetadata.getVersionRegistry();
+		versionRegistry.loadRegistry().thenRun(() -> {
+			if(versionRegistry.getAllVersions().isEmpty()) {
+				System.out.println("Could not load versions list, switching to offline");
+				//Todo: Offline Mode
+			}
+		});
 
 		// Read launch settings
 		LaunchSettings.readSettings();
 
 		// Read game version and branch
-		gameVersion = getLastUsedVersion();
-		setGameVersion(gameVersion);
-		setBranch(gameVersion.branch);
+		IndexFileEntry lastUsedVersion = findLastUsedVersion();
+		if(lastUsedVersion != null) {
+			gameVersion = lastUsedVersion;
+			setGameVersion(gameVersion);
+			setBranch(gameVersion.branch);
+		} else {
+			// The version is in a list that is not read yet, so keep the saved version and branch until it is
+			gameVersion = versionRegistry.getLatestVersion(GameBranch.RELEASE);
+			setBranch(GameBranch.getForIndex(LaunchSettings.getLastUsedBranch()));
+			versionRegistry.addListener(new Consumer<GameBranch>() {
+				@Override
+				public void accept(GameBranch branch) {
+					EventQueue.invokeLater(() -> onVersionsRead(this));
+				}
+			});
+		}
 
 		LaunchSettings.saveSettings();
 
@@ -134,6 +149,10 @@ public class StarMadeLauncher extends JFrame {
 		boolean selectVersion = false;
 		boolean autoUpdate = true;
 
+		// Start loading the launcher and game versions while the launcher starts up
+		RemoteMetadata.prefetch(LauncherUpdaterHelper.INDEX_URL);
+		RemoteMetadata.getVersionRegistry();
+
 		if(args == null || args.length == 0) startup();
 		else {
 			GameBranch buildBranch = GameBranch.RELEASE;
@@ -174,6 +193,30 @@ public class StarMadeLauncher extends JFrame {
 				serverMode = true;
 			}
 			LaunchSettings.readSettings();
+			int downloadThreads = getIntArgument(argList, "-download_threads:");
+			if(downloadThreads > 0) LaunchSettings.setDownloadStreams(downloadThreads);
+			int downloadLimit = getIntArgument(argList, "-download_limit:");
+			if(downloadLimit >= 0) LaunchSettings.setDownloadLimitKb(downloadLimit);
+			if(argList.contains("-incremental_backup")) LaunchSettings.setIncrementalBackups(true);
+			int backupGenerations = getIntArgument(argList, "-backup_generations:");
+			if(backupGenerations >= 0) LaunchSettings.setBackupGenerations(backupGenerations);
+			if(argList.contains("-list_backups") || argList.contains("-restore_backup:")) {
+				IncrementalBackup backup = new IncrementalBackup(new File(LaunchSettings.getInstallDir()).getAbsoluteFile());
+				int index = argList.indexOf("-restore_backup:");
+				if(index < 0) {
+					for(String generation : backup.getGenerations()) System.out.println(generation);
+				} else if(index + 1 < argList.size()) {
+					try {
+						backup.restore(argList.get(index + 1).trim(), null);
+					} catch(IOException exception) {
+						System.err.println("Could not restore backup: " + exception.getMessage());
+					}
+				} else {
+					displayHelp();
+					System.out.println("Please specify a backup to restore, see -list_backups");
+				}
+				return;
+			}
 			if(autoUpdate) {
 				if(headless) GameUpdater.withoutGUI(true, LaunchSettings.getInstallDir(), buildBranch, backupMode, selectVersion);
 				else LauncherUpdaterHelper.checkForUpdate();
@@ -182,15 +225,20 @@ public class StarMadeLauncher extends JFrame {
 			if(headless) {
 				System.out.println("Running in headless mode");
 				JavaVersion javaVersion = JavaVersion.JAVA_8;
-				gameVersion = new VersionRegistry().getLatestVersion(buildBranch);
+				VersionRegistry versionRegistry = RemoteMetadata.getVersionRegistry();
+				versionRegistry.awaitBranch(buildBranch);
+				gameVersion = versionRegistry.getLatestVersion(buildBranch);
 				if(gameVersion == null) {
 					System.err.println("Could not get latest game version, defaulting to Java 8");
 					//Get last used version from config
 					try {
-						gameVersion = new VersionRegistry().getLatestVersion(GameBranch.values()[LaunchSettings.getLastUsedBranch()]);
+						GameBranch lastUsedBranch = GameBranch.values()[LaunchSettings.getLastUsedBranch()];
+						versionRegistry.awaitBranch(lastUsedBranch);
+						gameVersion = versionRegistry.getLatestVersion(lastUsedBranch);
 					} catch(Exception e) {
 						e.printStackTrace();
-						gameVersion = new VersionRegistry().getLatestVersion(GameBranch.RELEASE);
+						versionRegistry.awaitBranch(GameBranch.RELEASE);
+						gameVersion = versionRegistry.getLatestVersion(GameBranch.RELEASE);
 					}
 					setGameVersion(gameVersion);
 				} else if(!gameVersion.version.startsWith("0.2") && !gameVersion.version.startsWith("0.1")) javaVersion = JavaVersion.JAVA_18;
@@ -202,7 +250,23 @@ public class StarMadeLauncher extends JFrame {
 		}
 	}
 
+	/**
+	 * Finishes installing an update that was interrupted, so the game is not started from a half-installed build.
+	 *
+	 * @return whether the game can be started
+	 */
+	private static boolean recoverInterruptedUpdate() {
+		try {
+			GameUpdater.recoverInterruptedUpdate(LaunchSettings.getInstallDir());
+			return true;
+		} catch(IOException exception) {
+			System.err.println("Could not finish installing the last update, please update again: " + exception.getMessage());
+			return false;
+		}
+	}
+
 	private static void startGameHeadless() {
+		if(!recoverInterruptedUpdate()) return;
 		ArrayList<String> commandComponents = getCommandComponents(false);
 		ProcessBuilder process = new ProcessBuilder(commandComponents);
 		process.directory(new File(LaunchSettings.getInstallDir()));
@@ -218,6 +282,7 @@ public class StarMadeLauncher extends JFrame {
 	}
 
 	private static void startServerHeadless() {
+		if(!recoverInterruptedUpdate()) return;
 		ArrayList<String> commandComponents = getCommandComponents(true);
 		ProcessBuilder process = new ProcessBuilder(commandComponents);
 		process.directory(new File(LaunchSettings.getInstallDir()));
@@ -345,6 +410,27 @@ public class StarMadeLauncher extends JFrame {
 		System.out.println("-pre : Use pre branch (default is release)");
 		System.out.println("-dev : Use dev branch (default is release)");
 		System.out.println("-server -port: <port> : Start in server mode");
+		System.out.println("-download_threads: <count> : Number of files to download at once (default is 6)");
+		System.out.println("-download_limit: <KB/s> : Limit the download speed of game updates (default is 0, unlimited)");
+		System.out.println("-incremental_backup : Only back up files that changed since the last backup");
+		System.out.println("-backup_generations: <count> : Number of incremental backups to keep (default is 10, 0 keeps all)");
+		System.out.println("-list_backups : List incremental backups");
+		System.out.println("-restore_backup: <backup> : Restore an incremental backup");
+	}
+
+	/**
+	 * Gets the number following an argument, like the port in "-port: 4242".
+	 *
+	 * @return the number, or -1 if the argument is missing or not followed by a number
+	 */
+	private static int getIntArgument(List<String> argList, String name) {
+		int index = argList.indexOf(name);
+		if(index < 0 || index + 1 >= argList.size()) return -1;
+		try {
+			return Integer.parseInt(argList.get(index + 1).trim());
+		} catch(NumberFormatException ignored) {
+			return -1;
+		}
 	}
 
 	private static String getCurrentUser() {
@@ -366,14 +452,18 @@ public class StarMadeLauncher extends JFrame {
 	private static void setGameVersion(IndexFileEntry gameVersion) {
 		if(gameVersion != null) {
 			LaunchSettings.setLastUsedVersion(gameVersion.version);
-			if(usingOldVersion()) LaunchSettings.setJvmArgs("--illegal-access=permit");
-			else LaunchSettings.setJvmArgs("");
+			updateJvmArgs();
 		} else {
 			LaunchSettings.setLastUsedVersion("NONE");
 			LaunchSettings.setJvmArgs("");
 		}
 	}
 
+	private static void updateJvmArgs() {
+		if(usingOldVersion()) LaunchSettings.setJvmArgs("--illegal-access=permit");
+		else LaunchSettings.setJvmArgs("");
+	}
+
 	private static void setBranch(GameBranch branch) {
 		lastUsedBranch = branch;
 		LaunchSettings.setLastUsedBranch(lastUsedBranch.index);
@@ -464,7 +554,7 @@ public class StarMadeLauncher extends JFrame {
 		String lastUsedVersion = LaunchSettings.getLastUsedVersion();
 		if(lastUsedVersion.isEmpty()) lastUsedVersion = "NONE";
 		for(int i = 0; i < versionDropdown.getItemCount(); i++) {
-			if(versionDropdown.getItemAt(i).equals(lastUsedVersion)) {
+			if(versionDropdown.getItemAt(i).split(" ")[0].equals(lastUsedVersion)) {
 				versionDropdown.setSelectedIndex(i);
 				break;
 			}
@@ -570,7 +660,12 @@ public class StarMadeLauncher extends JFrame {
 		downloader.downloadAndUnzip(dialog);
 	}
 
-	private IndexFileEntry getLastUsedVersion() {
+	/**
+	 * Finds the installed or last used version in the version lists read so far, without waiting for the others.
+	 *
+	 * @return the version, or null if it is not in any list yet
+	 */
+	private IndexFileEntry findLastUsedVersion() {
 		try {
 			String version;
 			File versionFile = new File(LaunchSettings.getInstallDir(), "version.txt");
@@ -581,15 +676,38 @@ public class StarMadeLauncher extends JFrame {
 			}
 			String shortVersion = version.substring(0, version.indexOf('#'));
 
-			IndexFileEntry entry = versionRegistry.searchForVersion(e -> shortVersion.equals(e.version));
+			// Look in the last used branch first, it is the most likely one
+			GameBranch branch = GameBranch.getForIndex(LaunchSettings.getLastUsedBranch());
+			IndexFileEntry entry = versionRegistry.searchForVersion(branch, e -> shortVersion.equals(e.version));
 			if(entry != null) return entry;
+			return versionRegistry.searchForVersion(e -> shortVersion.equals(e.version));
 		} catch(Exception e) {
 			System.out.println("Could not read game version from file");
+			return null;
 		}
+	}
+
+	private IndexFileEntry getLastUsedVersion() {
+		IndexFileEntry entry = findLastUsedVersion();
+		if(entry != null) return entry;
 		// Return latest release if nothing found
 		return versionRegistry.getLatestVersion(GameBranch.RELEASE);
 	}
 
+	private void onVersionsRead(Consumer<GameBranch> listener) {
+		IndexFileEntry version = findLastUsedVersion();
+		if(version == null) {
+			if(gameVersion == null) gameVersion = versionRegistry.getLatestVersion(GameBranch.RELEASE);
+			return;
+		}
+		// The version dropdown keeps its own selection, only the installed version is corrected
+		versionRegistry.removeListener(listener);
+		gameVersion = version;
+		updateJvmArgs();
+		LaunchSettings.saveSettings();
+		if(playPanel != null) recreateButtons(playPanel, false);
+	}
+
 	// Panel Methods
 
 	private void createMainPanel() {
@@ -799,7 +917,7 @@ public class StarMadeLauncher extends JFrame {
 		footerPanelButtons.add(dedicatedServerButton);
 		footerLabel.add(footerPanelButtons);
 		footerPanelButtons.setBounds(0, 0, 800, 30);
-		if(getLastUsedVersion() == null) selectedVersion = null;
+		if(gameVersion == null) selectedVersion = null;
 		else selectedVersion = gameVersion.version;
 		createPlayPanel(footerPanel);
 		createServerPanel(footerPanel);
@@ -953,7 +1071,7 @@ public class StarMadeLauncher extends JFrame {
 			dialog[0].setModal(true);
 			dialog[0].setResizable(false);
 			dialog[0].setTitle("Installation Settings");
-			dialog[0].setSize(450, 150);
+			dialog[0].setSize(450, 180);
 			dialog[0].setLocationRelativeTo(null);
 			dialog[0].setLayout(new BorderLayout());
 			dialog[0].setAlwaysOnTop(true);
@@ -1010,6 +1128,13 @@ public class StarMadeLauncher extends JFrame {
 				}
 			});
 
+			JCheckBox ssdCheckBox = new JCheckBox("Installed on an SSD", LaunchSettings.isSsdInstall());
+			ssdCheckBox.setDoubleBuffered(true);
+			ssdCheckBox.setOpaque(false);
+			ssdCheckBox.setFont(new Font("Roboto", Font.BOLD, 12));
+			ssdCheckBox.setToolTipText("Check game files in parallel when repairing or updating. Disable for spinning hard drives.");
+			dialogPanel.add(ssdCheckBox);
+
 			JButton repairButton = new JButton("Repair");
 			repairButton.setIcon(UIManager.getIcon("FileView.checkIcon"));
 			repairButton.setDoubleBuffered(true);
@@ -1042,10 +1167,9 @@ public class StarMadeLauncher extends JFrame {
 			buttonPanel.add(cancelButton);
 			saveButton.addActionListener(e1 -> {
 				String installDir = tempInstallDir[0];
-				if(installDir != null) {
-					LaunchSettings.setInstallDir(installDir);
-					LaunchSettings.saveSettings();
-				}
+				if(installDir != null) LaunchSettings.setInstallDir(installDir);
+				LaunchSettings.setSsdInstall(ssdCheckBox.isSelected());
+				LaunchSettings.saveSettings();
 				dialog[0].dispose();
 			});
 			cancelButton.addActionListener(e1 -> dialog[0].dispose());
@@ -1213,6 +1337,7 @@ public class StarMadeLauncher extends JFrame {
 	}
 
 	private void runStarMade(boolean server) {
+		if(!recoverInterruptedUpdate()) return;
 		ArrayList<String> commandComponents = getCommandComponents(server);
 		ProcessBuilder process = new ProcessBuilder(commandComponents);
 		process.directory(new File(LaunchSettings.getInstallDir()));
@@ -1282,6 +1407,20 @@ public class StarMadeLauncher extends JFrame {
 		JComboBox<String> branchDropdown = createBranchDropdown(versionDropdown, lastUsedBranch.index);
 		setClientProperties(branchDropdown, defaults);
 
+		// Fill in the versions again whenever the selected branch is read, first from the cache and then from the server
+		// The panel is rebuilt whenever the play panel is, so only the listener of the current one is kept
+		if(versionListener != null) versionRegistry.removeListener(versionListener);
+		versionListener = branch -> EventQueue.invokeLater(() -> {
+			if(SwingUtilities.getWindowAncestor(versionDropdown) != this) return;
+			if(branch != GameBranch.getForIndex(branchDropdown.getSelectedIndex())) return;
+			// Keep the selected version, as adding items selects the first one
+			String selected = versionDropdown.getSelectedIndex() == -1 ? LaunchSettings.getLastUsedVersion() : versionDropdown.getItemAt(versionDropdown.getSelectedIndex()).split(" ")[0];
+			versionDropdown.removeAllItems();
+			updateVersionDropdown(versionDropdown, branchDropdown, versionRegistry);
+			LaunchSettings.setLastUsedVersion(selected);
+			setInitialVersion(versionDropdown);
+		});
+		versionRegistry.addListener(versionListener);
 		versionDropdown.removeAllItems();
 		updateVersionDropdown(versionDropdown, branchDropdown, versionRegistry);
 		versionDropdown.addItemListener(e -> onSelectVersion(versionDropdown));
@@ -1342,11 +1481,12 @@ public class StarMadeLauncher extends JFrame {
 		//Start update process and update progress bar
 		(updaterThread = new UpdaterThread(version, backupMode, new File(LaunchSettings.getInstallDir())) {
 			@Override
-			public void onProgress(float progress, String file, long mbDownloaded, long mbTotal, long mbSpeed) {
+			public void onProgress(float progress, String file, long mbDownloaded, long mbTotal, long mbSpeed, long eta) {
 				dlStatus.setInstallProgress(progress);
 				dlStatus.setDownloadedMb(mbDownloaded);
 				dlStatus.setTotalMb(mbTotal);
 				dlStatus.setSpeedMb(mbSpeed);
+				dlStatus.setEta(eta);
 				if(file != null && !"null".equals(file)) dlStatus.setFilename(file);
 				int width = updateButtonEmpty.getIconWidth();
 				int height = updateButtonEmpty.getIconHeight();
@@ -40,8 +40,7 @@ public class UpdaterThread extends Thread {
 			}
 
 			// Get checksums
-			String buildDir = GameUpdater.FILES_URL + version.path; // build dir is same as path
-			ChecksumFile checksums = GameUpdater.getChecksums(buildDir);
+			ChecksumFile checksums = GameUpdater.getChecksums(version);
 
 			if(!installDir.exists()) installDir.mkdirs();
 			float finalSize = checksums.checksums.size();
@@ -49,38 +48,26 @@ public class UpdaterThread extends Thread {
 				onFinished();
 				return;
 			}
-			checksums.download(false, buildDir, installDir, installDir.getPath(), new FileDowloadCallback() {
+			checksums.download(false, () -> MirrorSelector.load(version.path), installDir, installDir.getPath(), new FileDowloadCallback() {
 				@Override
 				public void update(FileDownloadUpdate u) {
-					if(u.total == 0) {
-						onFinished();
-						return;
-					}
-					float progress = (float) u.currentSize / u.totalSize;
-					if(progress < 0) progress = (float) u.total / u.index; //Somehow its negative sometimes
-					onProgress(progress, u.fileName, u.downloaded, u.totalSize, (long) u.downloadSpeed);
+					if(u.total == 0) return;
+					float progress = u.totalSize > 0 ? (float) u.currentSize / u.totalSize : 1;
+					onProgress(progress, u.fileName, u.currentSize, u.totalSize, (long) u.downloadSpeed, u.eta);
 //					System.out.println(u.index + " " + u.total + " " + u.currentSize + " " + u.totalSize);
-					if(u.index >= u.total - 1 && u.currentSize >= u.totalSize) {
-						updating = false;
-//						onFinished();
-					}
 				}
 
 				@Override
 				public void update(String u) {
-					if(u.contains("Nothing to download")) onFinished();
 				}
 
 				@Override
 				public void done(FileDownloadUpdate u) {
-					if(u.index == 0 || u.total == 0) return;//idk
-					if(u.index >= u.total - 1) {
-						updating = false;
-						onFinished();
-					}
 				}
 			});
-			//onFinished();
+			// Files are still being found while downloading, so only finish once everything is done
+			updating = false;
+			onFinished();
 		} catch(IOException exception) {
 			System.out.println("Could not download file checksums");
 			onError(exception);
@@ -89,7 +76,7 @@ public class UpdaterThread extends Thread {
 		}
 	}
 
-	public void onProgress(float progress, String currentFile, long downloaded, long total, long speed) {
+	public void onProgress(float progress, String currentFile, long downloaded, long total, long speed, long eta) {
 	}
 
 	public void onFinished() {
@@ -2,15 +2,18 @@ package smlauncher;
 
 import smlauncher.starmade.GameBranch;
 import smlauncher.starmade.IndexFileEntry;
+import smlauncher.util.HttpCache;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
@@ -21,38 +24,112 @@ import java.util.function.Predicate;
 public class VersionRegistry {
 
 	private final Map<GameBranch, List<IndexFileEntry>> branchVersions;
+	private final Map<GameBranch, CompletableFuture<List<IndexFileEntry>>> loadingBranches;
+	private final List<Consumer<GameBranch>> listeners;
 
 	public VersionRegistry() {
-		branchVersions = new HashMap<>();
+		branchVersions = new ConcurrentHashMap<>();
+		loadingBranches = new ConcurrentHashMap<>();
+		listeners = new CopyOnWriteArrayList<>();
 	}
 
 	// Read Version Method
 
 	/**
-	 * Reads all game versions for each branch into the registry.
+	 * Reads all game versions for each branch into the registry, and waits until all branches are read.
 	 *
-	 * @throws IOException if the URL of versions cannot be read.
+	 * @throws IOException if no branch could be read.
 	 */
 	public void createRegistry() throws IOException {
+		loadRegistry().join();
+		if(branchVersions.isEmpty()) throw new IOException("Could not read the versions list of any branch");
+	}
+
+	/**
+	 * Starts reading the game versions of all branches at the same time. Cached lists are added before this returns,
+	 * each branch is replaced as soon as it is read, and a branch that cannot be read is left out without affecting the
+	 * others.
+	 *
+	 * @return a future completed once every branch was read or failed
+	 */
+	public CompletableFuture<Void> loadRegistry() {
+		List<CompletableFuture<List<IndexFileEntry>>> futures = new ArrayList<>();
 		for(GameBranch branch : GameBranch.values()) {
 			if(branch == GameBranch.ARCHIVE) continue; // don't run archive versions
+			futures.add(loadingBranches.computeIfAbsent(branch, this::startLoadBranch));
+		}
+		return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).exceptionally(e -> null);
+	}
 
-			List<IndexFileEntry> versions = readVersions(branch);
-			branchVersions.put(branch, versions);
+	private CompletableFuture<List<IndexFileEntry>> startLoadBranch(GameBranch branch) {
+		// Add the cached versions list right away, so the launcher is usable before the server answers
+		byte[] cached = HttpCache.getCached(branch.url);
+		if(cached != null) {
+			try {
+				branchVersions.put(branch, parseVersions(branch, new BufferedReader(new InputStreamReader(new ByteArrayInputStream(cached), StandardCharsets.UTF_8))));
+				for(Consumer<GameBranch> listener : listeners) listener.accept(branch);
+			} catch(IOException ignored) {
+			}
 		}
+
+		CompletableFuture<List<IndexFileEntry>> result = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
+			try {
+				List<IndexFileEntry> versions = readVersions(branch);
+				branchVersions.put(branch, versions);
+				result.complete(versions);
+				for(Consumer<GameBranch> listener : listeners) listener.accept(branch);
+			} catch(Throwable e) {
+				System.out.println("Could not load versions of branch " + branch.name);
+				result.completeExceptionally(e);
+			}
+		}, "VersionRegistry-" + branch.name);
+		thread.setDaemon(true);
+		thread.start();
+		return result;
+	}
+
+	/**
+	 * Waits until a branch was read, if it is being read.
+	 *
+	 * @param branch the branch
+	 * @return whether the versions of the branch are in the registry
+	 */
+	public boolean awaitBranch(GameBranch branch) {
+		CompletableFuture<List<IndexFileEntry>> future = loadingBranches.get(branch);
+		if(future != null) future.exceptionally(e -> null).join();
+		return branchVersions.containsKey(branch);
+	}
+
+	/**
+	 * Adds a listener called with each branch once its versions were read. The listener is called on the thread that
+	 * read the branch.
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(Consumer<GameBranch> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with {@link #addListener(Consumer)}.
+	 *
+	 * @param listener the listener
+	 */
+	public void removeListener(Consumer<GameBranch> listener) {
+		listeners.remove(listener);
 	}
 
 	private List<IndexFileEntry> readVersions(GameBranch branch) throws IOException {
-		// Open URL connection
-		URL url = new URL(branch.url);
-		URLConnection openConnection = url.openConnection();
-		openConnection.setConnectTimeout(10000);
-		openConnection.setReadTimeout(10000);
-		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-
-		// Read all versions
+		// Read all versions, shared with the game updater
+		try(BufferedReader in = RemoteMetadata.getReader(branch.url)) {
+			return parseVersions(branch, in);
+		}
+	}
+
+	private List<IndexFileEntry> parseVersions(GameBranch branch, BufferedReader in) throws IOException {
 		List<IndexFileEntry> versions = new ArrayList<>();
-		try(BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8))) {
+		try {
 			String line;
 			while((line = in.readLine()) != null) {
 				IndexFileEntry entry = IndexFileEntry.create(line, branch);
@@ -64,7 +141,6 @@ public class VersionRegistry {
 			System.out.println("Could not read versions list");
 			throw new IOException(e);
 		}
-		openConnection.getInputStream().close();
 
 		if(branch == GameBranch.DEV) { // Remove old dev versions
 			versions.removeIf(v -> v.build.startsWith("2017"));
@@ -8,6 +8,8 @@ import smlauncher.LaunchSettings;
 import smlauncher.util.OperatingSystem;
 
 import javax.swing.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -15,6 +17,8 @@ import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Downloads a JDK from the web and unzips it.
@@ -25,6 +29,7 @@ public class JavaDownloader {
 
 	private final OperatingSystem currentOS;
 	private final JavaVersion version;
+	private volatile boolean cancelled;
 
 	public JavaDownloader(JavaVersion version) {
 		this(OperatingSystem.getCurrent(), version);
@@ -36,25 +41,57 @@ public class JavaDownloader {
 		this.version = version;
 	}
 
+	/**
+	 * Downloads and unzips the JDK in the background while showing a modal dialog. The dialog closes as soon as the
+	 * download is done or failed. Closing the dialog early cancels the download, and the files written so far are
+	 * removed in the background once the download or extraction stops.
+	 *
+	 * @param dialog the dialog to show
+	 * @throws IOException if the download failed or was cancelled
+	 */
 	public void downloadAndUnzip(JDialog dialog) throws IOException {
 		// Don't unzip if the folder already exists
 		if(doesJreFolderExist()) return;
-		new Thread(() -> {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
 			try {
 				download();
-				unzip();
-				dialog.setVisible(false);
-			} catch(IOException e) {
-				e.printStackTrace();
+				if(!cancelled) unzip();
+				result.complete(null);
+			} catch(Throwable e) {
+				result.completeExceptionally(e);
+			} finally {
+				// Extraction cannot be interrupted, so a cancelled JRE is removed once it is done
+				if(cancelled) {
+					cleanupZip();
+					cleanupExtractedFolder();
+					cleanupFolder();
+				}
 			}
-		}).start();
-		dialog.setVisible(true);
-		while(dialog.isVisible()) {
-			try {
-				Thread.sleep(100);
-			} catch(InterruptedException e) {
-				e.printStackTrace();
+		}, "JRE Download");
+		thread.setDaemon(true);
+		result.whenComplete((v, e) -> SwingUtilities.invokeLater(dialog::dispose));
+		// The download may finish before the dialog is shown
+		dialog.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowOpened(WindowEvent e) {
+				if(result.isDone()) dialog.dispose();
 			}
+		});
+		thread.start();
+		dialog.setVisible(true); // Blocks until the dialog is closed
+
+		if(!result.isDone()) {
+			// Not joined, the download thread cleans up after itself without blocking the UI
+			cancelled = true;
+			thread.interrupt();
+			throw new IOException("Download of " + version + " was cancelled");
+		}
+		try {
+			result.join();
+		} catch(CompletionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
 		}
 	}
 
@@ -93,15 +130,7 @@ public class JavaDownloader {
 
 	private void moveExtractedFolder() throws IOException {
 		File jreFolder = new File(getJreFolderName());
-		File extractedFolder = null;
-
-		// Find the extracted folder
-		for(File file : Objects.requireNonNull(new File("./").listFiles())) {
-			if(file.getName().startsWith(version.fileStart)) {
-				extractedFolder = file;
-				break;
-			}
-		}
+		File extractedFolder = findExtractedFolder();
 		if(extractedFolder == null) throw new IOException("Could not find extracted folder");
 
 		// Rename the extracted folder to jre<#>/
@@ -110,6 +139,13 @@ public class JavaDownloader {
 
 	// Helper Methods
 
+	private File findExtractedFolder() {
+		for(File file : Objects.requireNonNull(new File("./").listFiles())) {
+			if(file.getName().startsWith(version.fileStart)) return file;
+		}
+		return null;
+	}
+
 	private boolean doesJreFolderExist() {
 		File jreFolder = new File(getJreFolderName());
 		return jreFolder.isDirectory();
@@ -132,6 +168,14 @@ public class JavaDownloader {
 		if(zipFile.exists()) zipFile.delete();
 	}
 
+	void cleanupExtractedFolder() {
+		File extractedFolder = findExtractedFolder();
+		try {
+			if(extractedFolder != null) FileUtils.deleteDirectory(extractedFolder);
+		} catch(IOException ignored) {
+		}
+	}
+
 	void cleanupFolder() {
 		File jreFolder = new File(getJreFolderName());
 		try {
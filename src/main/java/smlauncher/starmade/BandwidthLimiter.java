@@ -0,0 +1,48 @@
+package smlauncher.starmade;
+
+/**
+ * Caps the combined download rate of all transfers with a token bucket. Every transfer takes tokens for the bytes it
+ * received and waits while the bucket is in debt, so the transfers share the limit in the order they asked for it.
+ * The bucket holds up to one second of tokens, allowing short bursts after idle periods.
+ */
+final class BandwidthLimiter {
+
+	private static volatile long bytesPerSecond; // 0 if unlimited
+	private static double tokens;
+	private static long lastRefill;
+
+	private BandwidthLimiter() {
+	}
+
+	/**
+	 * Sets the download limit.
+	 *
+	 * @param bytesPerSecond the maximum combined download rate, or 0 for no limit
+	 */
+	static synchronized void setLimit(long bytesPerSecond) {
+		BandwidthLimiter.bytesPerSecond = Math.max(0, bytesPerSecond);
+		tokens = BandwidthLimiter.bytesPerSecond;
+		lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes tokens for received bytes.
+	 *
+	 * @param bytes the number of bytes received
+	 * @return the time in nanoseconds the transfer has to wait before receiving more
+	 */
+	static long reserve(long bytes) {
+		// Without a limit, transfers don't share a lock
+		if(bytesPerSecond <= 0) return 0;
+		synchronized(BandwidthLimiter.class) {
+			long limit = bytesPerSecond;
+			if(limit <= 0) return 0;
+			long now = System.nanoTime();
+			tokens = Math.min(limit, tokens + (now - lastRefill) * (limit / 1.0e9));
+			lastRefill = now;
+			tokens -= bytes;
+			return tokens >= 0 ? 0 : (long) (-tokens / limit * 1.0e9);
+		}
+	}
+
+}
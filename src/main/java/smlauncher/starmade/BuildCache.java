@@ -0,0 +1,132 @@
+package smlauncher.starmade;
+
+import smlauncher.LaunchSettings;
+import smlauncher.util.OperatingSystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers the checksum files of the most recently installed builds, while their files are kept in the
+ * {@link ObjectStore}. Switching back to a cached build places its files from the store and needs no downloads. The
+ * least recently used builds are dropped once more than the configured number are cached, together with the stored
+ * files no remaining build uses.
+ */
+public final class BuildCache {
+
+	private static final String CACHE_DIR = "builds";
+	private static final String EXTENSION = ".checksums";
+
+	private final File root;
+	private final int maxBuilds;
+	private final ObjectStore store;
+
+	public BuildCache(File root, int maxBuilds, ObjectStore store) {
+		this.root = root;
+		this.maxBuilds = maxBuilds;
+		this.store = store;
+	}
+
+	/**
+	 * Checks if the launch settings allow caching builds.
+	 *
+	 * @return whether builds are cached
+	 */
+	public static boolean isEnabled() {
+		return LaunchSettings.getCachedBuilds() > 0;
+	}
+
+	/**
+	 * Opens the build cache in the launcher's app directory.
+	 *
+	 * @return the build cache, or null if caching builds is disabled
+	 * @throws IOException if the app directory cannot be created
+	 */
+	public static BuildCache open() throws IOException {
+		if(!isEnabled()) return null;
+		return new BuildCache(new File(OperatingSystem.getAppDir(), CACHE_DIR), LaunchSettings.getCachedBuilds(), ObjectStore.open());
+	}
+
+	/**
+	 * Gets the checksum file of a cached build and marks the build as used.
+	 *
+	 * @param build the build
+	 * @return the checksum file, or null if the build is not cached
+	 */
+	public synchronized ChecksumFile getChecksums(String build) {
+		File file = getFile(build);
+		if(!file.exists()) return null;
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			ChecksumFile checksums = new ChecksumFile();
+			checksums.parse(in);
+			file.setLastModified(System.currentTimeMillis());
+			return checksums;
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not read cached build " + build + ": " + exception.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Caches an installed build, dropping the least recently used builds if too many are cached.
+	 *
+	 * @param build     the build
+	 * @param checksums the checksum file of the build
+	 */
+	public synchronized void add(String build, ChecksumFile checksums) {
+		File file = getFile(build);
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			Files.createDirectories(root.toPath());
+			try(BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				checksums.write(out);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			file.setLastModified(System.currentTimeMillis());
+			evict();
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not cache build " + build + ": " + exception.getMessage());
+			tempFile.delete();
+		}
+	}
+
+	private void evict() throws IOException {
+		File[] files = root.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if(files == null || files.length <= maxBuilds) return;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+
+		Set<String> used = new HashSet<>();
+		for(int i = 0; i < files.length; i++) {
+			if(i >= maxBuilds) {
+				System.err.println("[UPDATER] Removing cached build " + files[i].getName());
+				files[i].delete();
+				continue;
+			}
+			try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(files[i]), StandardCharsets.UTF_8))) {
+				ChecksumFile checksums = new ChecksumFile();
+				checksums.parse(in);
+				for(ChecksumFileEntry e : checksums.checksums) used.add(FileUtil.toHexString(e.checksum));
+			}
+		}
+		store.removeUnused(used);
+	}
+
+	private File getFile(String build) {
+		return new File(root, build.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION);
+	}
+
+}
@@ -1,20 +1,29 @@
 package smlauncher.starmade;
 
+import smlauncher.LaunchSettings;
+
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class ChecksumFile {
-	public static Set<ChecksumFileEntry> running = new HashSet<ChecksumFileEntry>();
+	private static final String VERSION_FILE = "/version.txt";
+	private static final int HDD_VERIFY_THREADS = 2;
+	private static final int SHA1_LENGTH = 20;
 	public ArrayList<ChecksumFileEntry> checksums = new ArrayList<ChecksumFileEntry>();
-	int toExecute;
-	private int failed;
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
 
 	public void parse(BufferedReader in) throws IOException {
 		String line;
@@ -29,7 +38,13 @@ public class ChecksumFile {
 				throw new IOException("Checksum file invalid [CHECKSUMNOTFOUND]: " + line);
 			}
 
-			String checksum = line.substring(hashIndex).trim();
+			byte[] checksum;
+			try {
+				checksum = FileUtil.fromHexString(line.substring(hashIndex).trim());
+				if(checksum.length != SHA1_LENGTH) throw new IllegalArgumentException("Not a SHA-1 checksum");
+			} catch(IllegalArgumentException e) {
+				throw new IOException("Checksum file invalid [CHECKSUMINVALID]: " + line, e);
+			}
 
 			//remove hash part
 			line = line.substring(0, hashIndex).trim();
@@ -56,10 +71,13 @@ public class ChecksumFile {
 
 			checksums.add(e);
 		}
+		moveVersionFileLast();
+	}
 
-		//put the version file last
+	// Put the version file last, so it is only replaced once all other files are
+	void moveVersionFileLast() {
 		for(int i = 0; i < checksums.size(); i++) {
-			if("./version.txt".equals(checksums.get(i).relativePath)) {
+			if(VERSION_FILE.equals(checksums.get(i).relativePath)) {
 				ChecksumFileEntry remove = checksums.remove(i);
 				checksums.add(remove);
 				break;
@@ -67,6 +85,19 @@ public class ChecksumFile {
 		}
 	}
 
+	/**
+	 * Writes the checksum file in the format read by {@link #parse(BufferedReader)}.
+	 *
+	 * @param out the writer
+	 * @throws IOException if writing fails
+	 */
+	public void write(BufferedWriter out) throws IOException {
+		for(ChecksumFileEntry e : checksums) {
+			out.write("." + e.relativePath + " " + e.size + " " + FileUtil.toHexString(e.checksum));
+			out.newLine();
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -83,83 +114,158 @@ public class ChecksumFile {
 	}
 
 	public void download(boolean force, String buildPath, File installDir, String installDirStr, FileDowloadCallback cb) throws NoSuchAlgorithmException, IOException {
-		ArrayList<ChecksumFileEntry> checksumsToDownload = new ArrayList<>();
+		download(force, () -> MirrorSelector.single(buildPath), installDir, installDirStr, cb);
+	}
+
+	/**
+	 * Updates the install to the files of this checksum file.
+	 *
+	 * @param mirrors creates the mirror selector, only called once a file has to be downloaded
+	 */
+	public void download(boolean force, Supplier<MirrorSelector> mirrors, File installDir, String installDirStr, FileDowloadCallback cb) throws NoSuchAlgorithmException, IOException {
 		cb.update("Determining files to download... ");
 
+		StagedUpdate update = new StagedUpdate(installDir);
+		update.recover();
+		ChecksumIndex index = ChecksumIndex.load(installDir);
 		FileUpdateTotal o = new FileUpdateTotal();
-		float p = 1.0f / checksums.size();
-		float g = 0;
-		for(ChecksumFileEntry e : checksums) {
-			if(force || e.needsDownload(buildPath, installDirStr)) {
-				checksumsToDownload.add(e);
-				o.totalSize += e.size;
+		ExecutorService verifyPool = Executors.newFixedThreadPool(getVerifyThreads());
+		DownloadQueue queue = new DownloadQueue(Math.max(1, LaunchSettings.getDownloadStreams()));
+		o.queue = queue;
+		BandwidthLimiter.setLimit(LaunchSettings.getDownloadLimitKb() * 1024L);
+		// The installed build is read before the version file is replaced, so changed files can be patched from it
+		UpdateSources sources = new UpdateSources(mirrors, force ? null : VersionContainer.getInstalledBuild(installDirStr));
+		ObjectStore store = getObjectStore();
+		failed.set(0);
+		completed.set(0);
+		o.startReporting(cb);
+		printUpdaterMessage("[UPDATER] Starting download");
+
+		try {
+			// Files are handed to the download queue as soon as they are found to differ,
+			// so downloading starts while the rest of the install is still being verified
+			ChecksumFileEntry versionEntry = null;
+			List<CompletableFuture<Void>> files = new ArrayList<>();
+			for(ChecksumFileEntry e : checksums) {
+				if(VERSION_FILE.equals(e.relativePath)) {
+					versionEntry = e;
+					continue;
+				}
+				files.add(verifyAndQueue(e, force, sources, store, update, installDir, installDirStr, cb, verifyPool, queue, o, index));
 			}
-			//cb.update("Determining files to download... " + (StringTools.formatPointZero(g * p * 100.0f)) + "%  selected " + checksumsToDownload.size() + " / " + checksums.size() + "(" + (o.totalSize / 1024) / 1024 + " MB)");
-			g++;
+			await(CompletableFuture.allOf(files.toArray(CompletableFuture<?>[]::new)), queue);
+
+			// The version file goes last, so an interrupted update is not mistaken for a finished one
+			if(versionEntry != null && failed.get() == 0) {
+				await(verifyAndQueue(versionEntry, force, sources, store, update, installDir, installDirStr, cb, verifyPool, queue, o, index), queue);
+			}
+
+			// The install is only changed once every file was downloaded
+			if(failed.get() == 0 && !update.isEmpty()) {
+				cb.update("Installing update... ");
+				update.commit(index);
+			}
+		} finally {
+			verifyPool.shutdownNow();
+			queue.shutdown();
+			o.stopReporting(cb);
+			index.save();
 		}
-		if(checksumsToDownload.isEmpty()) {
+
+		if(failed.get() == 0) cacheBuild(installDirStr);
+
+		if(o.getTotal() == 0) {
 			cb.update("Nothing to download");
 			return;
 		}
+		int failedFiles = failed.get();
+		if(failedFiles > 0) {
+			throw new IOException("Download failed on " + failedFiles + " file" + (failedFiles > 1 ? "s" : "") + "\nthe installed game was not changed, downloaded files are kept for the next attempt");
+		}
+		printUpdaterMessage("Downloaded all files");
+	}
 
-		o.startTime = System.currentTimeMillis();
-		ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(5);
-		toExecute = checksumsToDownload.size();
-		failed = 0;
-		running.clear();
-		printUpdaterMessage("[UPDATER] Starting download");
-
-		// Periodically give updates
-		float percentUpdate = 0.1f;
-		int thresholdIncreaseAmount = (int) (percentUpdate * checksumsToDownload.size());
-		int nextThreshold = 0;
-
-		for(int i = 0; i < checksumsToDownload.size(); i++) {
-			ChecksumFileEntry e = checksumsToDownload.get(i);
-			e.index = i;
-
-			synchronized(running) {
-				boolean add = running.add(e);
-//				System.err.println("STARTED: "+e+"; "+running);
-				assert (add);
+	/**
+	 * Checks a file on the verify pool and queues its download if it differs.
+	 *
+	 * @return completes once the file is up to date or its download failed
+	 */
+	private CompletableFuture<Void> verifyAndQueue(ChecksumFileEntry e, boolean force, UpdateSources sources, ObjectStore store, StagedUpdate update, File installDir, String installDirStr, FileDowloadCallback cb, ExecutorService verifyPool, DownloadQueue queue, FileUpdateTotal o, ChecksumIndex index) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				if(force) return true;
+				boolean needsDownload = e.needsDownload(installDirStr, index);
+				if(!needsDownload && store != null) e.store(store, installDirStr, index);
+				return needsDownload;
+			} catch(IOException e1) {
+				System.err.println("[UPDATER] Could not verify " + e.relativePath + ", downloading it again: " + e1.getMessage());
+				return true;
 			}
-			pool.execute(() -> {
-				try {
-					o.index = e.index;
-					o.total = checksumsToDownload.size();
-					e.download(force, buildPath, installDir, installDirStr, cb, o);
-				} catch(Exception e1) {
-					e1.printStackTrace();
-					failed++;
+		}, verifyPool).thenCompose(needsDownload -> {
+			if(!needsDownload) return CompletableFuture.completedFuture(null);
+			e.index = o.addFile(e);
+			return queue.submit(e, () -> {
+				e.download(force, sources, store, update, installDir, installDirStr, cb, o, index);
+				return null;
+			}).handle((result, exception) -> {
+				if(exception != null) {
+					exception.printStackTrace();
+					failed.incrementAndGet();
 				}
-				synchronized(running) {
-					boolean remove = running.remove(e);
-//						System.err.println("FINISHED: "+e);
-					assert (remove);
+				int done = completed.incrementAndGet();
+				int total = o.getTotal();
+				if(done % Math.max(1, total / 10) == 0) {
+					printUpdaterMessage("Downloaded %d/%d files (%d%%)".formatted(done, total, 100 * done / total));
 				}
-				toExecute--;
+				return null;
 			});
+		});
+	}
 
-			if (i == nextThreshold) {
-				int percent = (int) (100f * i / checksumsToDownload.size());
-				printUpdaterMessage("[UPDATER] Downloaded %d/%d files (%d%%)\n"
-						.formatted(i, checksumsToDownload.size(), percent));
-				nextThreshold += thresholdIncreaseAmount;
-			}
+	/**
+	 * Waits for a phase of the update. If the updating thread is interrupted, the remaining downloads are cancelled.
+	 */
+	private static void await(CompletableFuture<Void> phase, DownloadQueue queue) throws IOException {
+		try {
+			phase.get();
+		} catch(InterruptedException exception) {
+			queue.cancel();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Update was cancelled");
+		} catch(ExecutionException exception) {
+			throw new IOException(exception.getCause());
 		}
+	}
 
-		while(toExecute > 0) {
-			try {
-				Thread.sleep(300);
-			} catch(InterruptedException e1) {
-				e1.printStackTrace();
-			}
+	private void cacheBuild(String installDirStr) {
+		String build = VersionContainer.getInstalledBuild(installDirStr);
+		if(build == null) return;
+		try {
+			BuildCache cache = BuildCache.open();
+			if(cache != null) cache.add(build, this);
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not open build cache: " + exception.getMessage());
 		}
-		if(failed > 0) {
-			throw new IOException("Download failed on " + failed + " file" + (failed > 1 ? "s" : "") + "\nplease redownload forced from the options");
+	}
+
+	private static ObjectStore getObjectStore() {
+		// Cached builds are restored from the object store
+		if(!LaunchSettings.isSharedObjectStore() && !BuildCache.isEnabled()) return null;
+		try {
+			return ObjectStore.open();
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not open shared object store: " + exception.getMessage());
+			return null;
 		}
-		pool.shutdown();
-		printUpdaterMessage("Downloaded all files");
+	}
+
+	/**
+	 * Gets the number of threads used to check local files. Solid state drives handle parallel reads well, while
+	 * spinning disks slow down when too many files are read at once.
+	 */
+	private static int getVerifyThreads() {
+		if(!LaunchSettings.isSsdInstall()) return HDD_VERIFY_THREADS;
+		return Math.max(1, Runtime.getRuntime().availableProcessors());
 	}
 
 	private static void printUpdaterMessage(String message) {
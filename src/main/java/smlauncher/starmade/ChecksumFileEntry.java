@@ -2,31 +2,43 @@ package smlauncher.starmade;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 public class ChecksumFileEntry {
 	public final long size;
-	public final String checksum;
+	public final byte[] checksum;
 	public final String relativePath;
 	protected int index;
+	volatile long downloadedBytes;
 
-	public ChecksumFileEntry(long size, String checksum, String relativePath) {
+	public ChecksumFileEntry(long size, byte[] checksum, String relativePath) {
 		this.size = size;
 		this.checksum = checksum;
-		this.relativePath = relativePath.replaceFirst("\\.", "");
+		// Paths in checksum files start with "./"
+		this.relativePath = relativePath.startsWith(".") ? relativePath.substring(1) : relativePath;
 	}
 
-	public boolean needsDownload(String buildPath, String installDirStr) throws IOException {
-		String sourceFilePath = buildPath + relativePath;
+	public boolean needsDownload(String installDirStr, ChecksumIndex index) throws IOException {
 		File dst = new File(installDirStr, relativePath);
 
 		boolean replace;
 		if(dst.exists()) {
-			String localChecksum = FileUtil.getSha1Checksum(dst.getAbsolutePath());
-			replace = !localChecksum.equals(checksum);
+			byte[] localChecksum = index.getChecksum(relativePath, dst);
+			replace = !Arrays.equals(localChecksum, checksum);
 			if(replace) {
-				printUpdaterMessage("[UPDATER] Checksum differs for " + relativePath + ": " + localChecksum + " :: " + checksum);
+				if(GameUpdater.PRINT_ALL_DOWNLOADS) {
+					printUpdaterMessage("[UPDATER] Checksum differs for " + relativePath + ": " + FileUtil.toHexString(localChecksum) + " :: " + FileUtil.toHexString(checksum));
+				}
 			} else {
 				printUpdaterMessage("[UPDATER] Not downloading " + relativePath + ": remote file same as local");
 			}
@@ -37,93 +49,140 @@ public class ChecksumFileEntry {
 		return replace;
 	}
 
-	public void download(boolean force, String buildPath, File installDir, String installDirStr, FileDowloadCallback cb, FileUpdateTotal o) throws NoSuchAlgorithmException, IOException {
-		String sourceFilePath = buildPath + relativePath;
+	/**
+	 * Adds the installed file to the shared object store, so other installs can use it.
+	 *
+	 * @throws IOException if the file attributes cannot be read
+	 */
+	public void store(ObjectStore store, String installDirStr, ChecksumIndex index) throws IOException {
 		File dst = new File(installDirStr, relativePath);
-//		File dst = destFilePath;//new File(destFilePath);
+		store.add(dst, checksum);
+		// Storing may change the modification time
+		index.update(relativePath, dst, checksum);
+	}
 
-		printUpdaterMessage("Downloading " + sourceFilePath + " -> " + dst.getAbsolutePath());
+	public void download(boolean force, UpdateSources sources, ObjectStore store, StagedUpdate update, File installDir, String installDirStr, FileDowloadCallback cb, FileUpdateTotal o, ChecksumIndex checksumIndex) throws NoSuchAlgorithmException, IOException {
+		File dst = new File(installDirStr, relativePath);
+		// The installed file is only replaced once the whole update is downloaded
+		File staged = update.getStagedFile(relativePath);
 
-		boolean replace = needsDownload(buildPath, installDirStr) || force;
-		if(dst.exists() && replace) {
-			if(!dst.delete()) {
-				throw new IOException("File " + dst.getAbsolutePath() + " could not be removed! Is it still in use?");
+		boolean replace = force || needsDownload(installDirStr, checksumIndex);
+
+		// A part file left by an interrupted update is resumed, unless it cannot belong to this file
+		File file = new File(staged.getAbsolutePath() + ".filepart");
+		if(file.length() > size) file.delete();
+		DownloadCallback callback = new DownloadCallback() {
+
+			@Override
+			public void doneDownloading() {
 			}
+
+			@Override
+			public void downloaded(long size, long diff) {
+				downloadedBytes = size;
+				o.downloaded(ChecksumFileEntry.this, diff);
+			}
+		};
+
+		staged.getParentFile().mkdirs();
+
+		// A file staged by an earlier attempt that failed elsewhere is used again
+		if(staged.isFile() && staged.length() == size && Arrays.equals(FileUtil.createChecksum(staged), checksum)) {
+			callback.downloaded(size, size);
+			update.add(this);
+			cb.done(o.createUpdate(this));
+			return;
 		}
-		if(!dst.getParentFile().exists()) {
-			System.err.println("Creating path: " + dst.getParentFile().getAbsolutePath());
-		}
 
-		dst.getParentFile().mkdirs();
+		// Files already stored for another install are not downloaded again
+		boolean stored = store != null && store.materialize(checksum, size, file);
+		if(stored) callback.downloaded(size, size);
+
+		// Files changed since the installed build are patched, unless a full download was already started
+		boolean patched = !stored && !force && replace && dst.exists() && !file.exists() && patch(sources, dst, file, checksumIndex, callback, o);
 
-		String name = dst.getName();
+		if(!stored && !patched) downloadFull(sources.getMirrors(), dst, file, callback, o);
 
-		File file = new File(dst.getAbsolutePath() + ".filepart");
-		//remove file part
-		file.delete();
-		//		final long[] update = new long[2];
-		FileDownloadUpdate e = new FileDownloadUpdate();
 		try {
-			FileUtil.copyURLToFile(FileUtil.convertToURLEscapingIllegalCharacters(sourceFilePath), file, 50000, 50000, new DownloadCallback() {
-
-				@Override
-				public void doneDownloading() {
-					int s = Integer.MAX_VALUE;
-					synchronized(ChecksumFile.running) {
-						for(ChecksumFileEntry en : ChecksumFile.running) {
-							s = Math.min(en.index, s);
-						}
-					}
-					if(s == index) {
-						cb.done(e);
-					} else {
-//						System.err.println(s+" INDNN "+index+": "+ChecksumFile.running);
-					}
-				}
+			Files.move(file.toPath(), staged.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException exception) {
+			Files.move(file.toPath(), staged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if(store != null && !stored) store.add(staged, checksum);
+		update.add(this);
+		cb.done(o.createUpdate(this));
+	}
 
-				@Override
-				public void downloaded(long size, long diff) {
-					o.lastSpeedSize += diff;
-
-					o.currentSize += diff;
-					e.downloaded = size;
-					e.size = ChecksumFileEntry.this.size;
-					e.fileName = name;
-					e.index = o.index;
-					e.total = o.total;
-					e.totalSize = o.totalSize;
-					e.currentSize = o.currentSize;
-
-					long diffTime = System.currentTimeMillis() - o.startTime;
-					if(diffTime / 200 > 1) {
-						double secs = diffTime / 200.0d;
-
-						o.downloadSpeed = o.lastSpeedSize / secs;
-						o.lastSpeedSize = 0;
-						o.startTime = System.currentTimeMillis();
-
-					}
-					e.downloadSpeed = o.downloadSpeed;
-
-					int s = Integer.MAX_VALUE;
-					synchronized(ChecksumFile.running) {
-						for(ChecksumFileEntry en : ChecksumFile.running) {
-							s = Math.min(en.index, s);
-						}
-					}
-					if(s == index) {
-//						System.err.println("INDNN "+index+": "+ChecksumFile.running);
-						cb.update(e);
-					} else {
-//						System.err.println(s+" INDNN "+index+": "+ChecksumFile.running);
-					}
-				}
-			}, "dev", "dev", true);
+	/**
+	 * Builds the file by applying a patch from the installed build to the installed file. If the patch cannot be
+	 * downloaded or applied, the full file is downloaded instead.
+	 *
+	 * @return whether the file was patched
+	 */
+	private boolean patch(UpdateSources sources, File dst, File file, ChecksumIndex checksumIndex, DownloadCallback callback, FileUpdateTotal o) throws InterruptedIOException {
+		PatchIndex patches = sources.getPatches();
+		if(patches == null || !patches.has(relativePath)) return false;
+		MirrorSelector mirrors = sources.getMirrors();
+		MirrorSelector.Mirror mirror = mirrors.acquire(size, Collections.emptySet());
+		if(mirror == null) return false;
+		File patchFile = new File(file.getParentFile(), dst.getName() + FilePatch.EXTENSION);
+		patchFile.delete();
+		try {
+			byte[] installedChecksum = checksumIndex.getChecksum(relativePath, dst);
+			HttpDownloader.download(toURI(patches.getUrl(mirror.buildUrl, relativePath)), patchFile, null);
+			byte[] patched = FilePatch.apply(dst, installedChecksum, patchFile, file, callback);
+			if(!Arrays.equals(patched, checksum)) throw new IOException("Patched file does not match its checksum");
+			printUpdaterMessage("Patched " + relativePath + " from build " + patches.installedBuild);
+			return true;
+		} catch(IOException e1) {
+			file.delete();
+			o.downloaded(this, -downloadedBytes);
+			downloadedBytes = 0;
+			if(e1 instanceof InterruptedIOException) throw (InterruptedIOException) e1;
+			// A listed patch the mirror does not have means it has none, so the other files are not tried
+			if(e1 instanceof HttpDownloader.HttpStatusException && ((HttpDownloader.HttpStatusException) e1).status == 404) patches.disable();
+			else System.err.println("[UPDATER] Could not patch " + relativePath + ", downloading the full file: " + e1.getMessage());
+			return false;
+		} finally {
+			mirrors.cancelled(mirror);
+			patchFile.delete();
+		}
+	}
+
+	private void downloadFull(MirrorSelector mirrors, File dst, File file, DownloadCallback callback, FileUpdateTotal o) throws IOException {
+		// Try the other mirrors if a download fails or stalls
+		Set<MirrorSelector.Mirror> failedMirrors = new HashSet<>();
+		IOException failure = null;
+		MirrorSelector.Mirror mirror;
+		while((mirror = mirrors.acquire(size, failedMirrors)) != null) {
+			String sourceFilePath = mirror.buildUrl + relativePath;
+			printUpdaterMessage("Downloading " + sourceFilePath + " -> " + dst.getAbsolutePath());
+			long start = System.currentTimeMillis();
+			try {
+				HttpDownloader.download(toURI(sourceFilePath), file, size, checksum, callback);
+				mirrors.completed(mirror, size, System.currentTimeMillis() - start);
+				failure = null;
+				break;
+			} catch(InterruptedIOException e1) {
+				mirrors.cancelled(mirror);
+				throw e1;
+			} catch(IOException e1) {
+				System.err.println("[UPDATER] Download of " + relativePath + " failed on " + mirror.buildUrl + ": " + e1.getMessage());
+				mirrors.failed(mirror);
+				failedMirrors.add(mirror);
+				o.downloaded(this, -downloadedBytes);
+				downloadedBytes = 0;
+				failure = e1;
+			}
+		}
+		if(failure != null) throw failure;
+	}
 
-			file.renameTo(dst);
-		} catch(URISyntaxException e1) {
-			e1.printStackTrace();
-			throw new IOException(e1);
+	private static URI toURI(String url) throws IOException {
+		try {
+			return FileUtil.convertToURLEscapingIllegalCharacters(url).toURI();
+		} catch(URISyntaxException e) {
+			throw new IOException(e);
 		}
 	}
 
@@ -148,7 +207,7 @@ public class ChecksumFileEntry {
 	 */
 	@Override
 	public String toString() {
-		return "ChecksumFileEntry [size=" + size + ", checksum=" + checksum
+		return "ChecksumFileEntry [size=" + size + ", checksum=" + FileUtil.toHexString(checksum)
 				+ ", relativePath=" + relativePath + ", index " + index + "]";
 	}
 
@@ -0,0 +1,145 @@
+package smlauncher.starmade;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the checksums of installed game files together with their file attributes, so files that have not
+ * changed since the last update do not need to be hashed again.
+ * <p>
+ * The index is stored in the install directory, one line per file:
+ * <pre>size mtime fileKey sha1 relativePath</pre>
+ */
+public class ChecksumIndex {
+
+	private static final String INDEX_FILENAME = ".checksum-index";
+	private static final String NO_FILE_KEY = "-";
+
+	private final File indexFile;
+	private final Map<String, IndexEntry> entries = new ConcurrentHashMap<>();
+
+	private ChecksumIndex(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Loads the checksum index of an install directory. A missing or unreadable index results in an empty index.
+	 *
+	 * @param installDir the game install directory
+	 * @return the checksum index
+	 */
+	public static ChecksumIndex load(File installDir) {
+		ChecksumIndex index = new ChecksumIndex(new File(installDir, INDEX_FILENAME));
+		if(!index.indexFile.exists()) return index;
+
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(index.indexFile), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] parts = line.split(" ", 5);
+				if(parts.length < 5) continue;
+				IndexEntry entry = new IndexEntry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], FileUtil.fromHexString(parts[3]));
+				index.entries.put(parts[4], entry);
+			}
+		} catch(IOException | IllegalArgumentException exception) {
+			System.err.println("[UPDATER] Could not read checksum index, all files will be checked: " + exception.getMessage());
+			index.entries.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Gets the SHA-1 checksum of an installed file. The cached checksum is used if the size, modification time and
+	 * file key are unchanged, otherwise the file is hashed again and the index is updated.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 * @param file         the installed file
+	 * @return the SHA-1 digest of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public byte[] getChecksum(String relativePath, File file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+		String fileKey = getFileKey(attributes);
+
+		IndexEntry entry = entries.get(relativePath);
+		if(entry != null && entry.matches(size, modified, fileKey)) return entry.checksum;
+
+		byte[] checksum = FileUtil.createChecksum(file);
+		entries.put(relativePath, new IndexEntry(size, modified, fileKey, checksum));
+		return checksum;
+	}
+
+	/**
+	 * Records the checksum of a file that was just downloaded and verified, so it is not hashed again on the next
+	 * update.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 * @param file         the installed file
+	 * @param checksum     the SHA-1 digest of the file
+	 * @throws IOException if the file attributes cannot be read
+	 */
+	public void update(String relativePath, File file, byte[] checksum) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		entries.put(relativePath, new IndexEntry(attributes.size(), attributes.lastModifiedTime().toMillis(), getFileKey(attributes), checksum));
+	}
+
+	/**
+	 * Removes a file from the index, so it is hashed again the next time it is checked.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 */
+	public void invalidate(String relativePath) {
+		entries.remove(relativePath);
+	}
+
+	/**
+	 * Writes the index to a temporary file and moves it over the old index.
+	 *
+	 * @throws IOException if the index cannot be written
+	 */
+	public void save() throws IOException {
+		File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+		try(BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+			for(Map.Entry<String, IndexEntry> e : entries.entrySet()) {
+				IndexEntry entry = e.getValue();
+				out.write(entry.size + " " + entry.modified + " " + entry.fileKey + " " + FileUtil.toHexString(entry.checksum) + " " + e.getKey());
+				out.newLine();
+			}
+		}
+		try {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException exception) {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static String getFileKey(BasicFileAttributes attributes) {
+		Object fileKey = attributes.fileKey();
+		if(fileKey == null) return NO_FILE_KEY;
+		return fileKey.toString().replace(' ', '_');
+	}
+
+	private static final class IndexEntry {
+		final long size;
+		final long modified;
+		final String fileKey;
+		final byte[] checksum;
+
+		IndexEntry(long size, long modified, String fileKey, byte[] checksum) {
+			this.size = size;
+			this.modified = modified;
+			this.fileKey = fileKey;
+			this.checksum = checksum;
+		}
+
+		boolean matches(long size, long modified, String fileKey) {
+			return this.size == size && this.modified == modified && this.fileKey.equals(fileKey);
+		}
+	}
+
+}
@@ -42,6 +42,9 @@
 package smlauncher.starmade;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * The Class DataUtil.
@@ -54,15 +57,22 @@ public class DataUtil {
 	public static final String dataPath = "data" + File.separator;
 
 	public static void copy(File src, File dst) throws IOException {
-		InputStream in = new FileInputStream(src);
-		OutputStream out = new FileOutputStream(dst);
-		// Transfer bytes from in to out
-		byte[] buf = new byte[1024];
-		int len;
-		while((len = in.read(buf)) > 0) {
-			out.write(buf, 0, len);
+		Files.copy(src.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Moves a file, replacing the destination. On the same file system the file is only renamed, otherwise it is
+	 * copied by the operating system and the source is deleted.
+	 *
+	 * @param src the file to move
+	 * @param dst the destination
+	 * @throws IOException if the file could not be moved
+	 */
+	public static void move(File src, File dst) throws IOException {
+		try {
+			Files.move(src.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException exception) {
+			Files.move(src.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
-		in.close();
-		out.close();
 	}
 }
@@ -0,0 +1,141 @@
+package smlauncher.starmade;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs file downloads on a fixed number of workers, largest files first, so a big file found late does not leave
+ * the update waiting on one slow transfer at the end. One worker takes the smallest files first instead, so small
+ * files keep finishing while the other workers are busy with large ones.
+ */
+class DownloadQueue {
+
+	private static final long SMALL_FILE_SIZE = 1024 * 1024;
+
+	private final TreeSet<Task> queued = new TreeSet<>(Comparator.<Task>comparingLong(t -> t.entry.size).thenComparingInt(t -> t.entry.index));
+	private final Map<ChecksumFileEntry, Thread> active = new HashMap<>();
+	private final int workers;
+	private boolean shutdown;
+
+	DownloadQueue(int workers) {
+		this.workers = workers;
+		for(int i = 0; i < workers; i++) {
+			boolean smallFileLane = i == 0 && workers > 1;
+			Thread thread = new Thread(() -> work(smallFileLane), "Download Worker " + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues the download of a file.
+	 *
+	 * @param entry the file to download
+	 * @param task  downloads the file
+	 * @return completes when the download is done, or exceptionally with the exception thrown by the task
+	 */
+	synchronized CompletableFuture<Void> submit(ChecksumFileEntry entry, Callable<Void> task) {
+		Task t = new Task(entry, task);
+		if(shutdown) t.result.completeExceptionally(new CancellationException("Download queue was shut down"));
+		else {
+			queued.add(t);
+			notify();
+		}
+		return t.result;
+	}
+
+	/**
+	 * Lets the workers exit once all queued downloads are done.
+	 */
+	synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	/**
+	 * Cancels all queued downloads and interrupts the running ones, then lets the workers exit.
+	 */
+	synchronized void cancel() {
+		shutdown = true;
+		for(Task task : queued) task.result.cancel(false);
+		queued.clear();
+		for(Thread thread : active.values()) thread.interrupt();
+		notifyAll();
+	}
+
+	/**
+	 * Estimates how long the remaining downloads take. The bytes left of each running download are the load of its
+	 * worker, and queued files are handed to the least loaded worker in the order they will be downloaded. The
+	 * estimate is the time the most loaded worker needs at its share of the download speed.
+	 *
+	 * @param bytesPerSecond the current total download speed
+	 * @return the estimated time left in milliseconds, or -1 if the speed is unknown
+	 */
+	synchronized long estimateRemainingMillis(double bytesPerSecond) {
+		if(bytesPerSecond <= 0) return -1;
+		long[] load = new long[workers];
+		int worker = 0;
+		for(ChecksumFileEntry entry : active.keySet()) {
+			load[worker++] = Math.max(0, entry.size - entry.downloadedBytes);
+		}
+		for(Task task : queued.descendingSet()) {
+			int least = 0;
+			for(int i = 1; i < workers; i++) {
+				if(load[i] < load[least]) least = i;
+			}
+			load[least] += task.entry.size;
+		}
+		long maxLoad = 0;
+		for(long l : load) maxLoad = Math.max(maxLoad, l);
+		double workerSpeed = bytesPerSecond / Math.max(1, Math.min(workers, active.size() + queued.size()));
+		return (long) (maxLoad / workerSpeed * 1000);
+	}
+
+	private void work(boolean smallFileLane) {
+		while(true) {
+			Task task;
+			synchronized(this) {
+				while(queued.isEmpty() && !shutdown) {
+					try {
+						wait();
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+				if(queued.isEmpty()) return;
+				if(smallFileLane && queued.first().entry.size < SMALL_FILE_SIZE) task = queued.pollFirst();
+				else task = queued.pollLast();
+				active.put(task.entry, Thread.currentThread());
+			}
+			try {
+				task.task.call();
+				task.result.complete(null);
+			} catch(Exception e) {
+				task.result.completeExceptionally(e);
+			} finally {
+				synchronized(this) {
+					active.remove(task.entry);
+					// Clear an interrupt from cancel() that arrived after the download was done
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+
+	private static final class Task {
+		final ChecksumFileEntry entry;
+		final Callable<Void> task;
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		Task(ChecksumFileEntry entry, Callable<Void> task) {
+			this.entry = entry;
+			this.task = task;
+		}
+	}
+
+}
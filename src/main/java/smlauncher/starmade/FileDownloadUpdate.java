@@ -10,5 +10,7 @@ public class FileDownloadUpdate {
 	public long totalSize;
 	public long currentSize;
 	public double downloadSpeed;
+	/** Estimated time until all files are downloaded in milliseconds, or -1 if unknown. */
+	public long eta = -1;
 
 }
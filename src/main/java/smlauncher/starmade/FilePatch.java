@@ -0,0 +1,305 @@
+package smlauncher.starmade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Binary patches that turn the file of one build into the file of another. A patch is a list of operations that
+ * either copy a range of the old file or insert new data, found with an rsync-style rolling checksum, so data that
+ * only moved within a file is not sent again.
+ * <p>
+ * Patch layout, big-endian:
+ * <pre>
+ * "SMPATCH1"                      magic
+ * byte[20]                        SHA-1 of the old file
+ * long                            size of the new file
+ * 'C' long offset, int length     copy from the old file
+ * 'D' int length, byte[length]    insert data
+ * 'E'                             end of patch
+ * </pre>
+ */
+public final class FilePatch {
+
+	public static final String EXTENSION = ".patch";
+	private static final byte[] MAGIC = "SMPATCH1".getBytes();
+	private static final int COPY = 'C';
+	private static final int DATA = 'D';
+	private static final int END = 'E';
+	private static final int BLOCK_SIZE = 4096;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FilePatch() {
+	}
+
+	/**
+	 * Creates the patches from one build to another, for publishing them in {@code patches/<old build>/} of the new
+	 * build.
+	 * <p>
+	 * Usage: {@code FilePatch <old build dir> <new build dir> <patch dir>}
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 3) {
+			System.err.println("Usage: FilePatch <old build dir> <new build dir> <patch dir>");
+			System.exit(1);
+		}
+		int count = createPatches(new File(args[0]), new File(args[1]), new File(args[2]));
+		System.out.println("Created " + count + " patches in " + args[2]);
+	}
+
+	/**
+	 * Creates a patch for every file that changed between two builds, and the index listing them. Patches that are
+	 * not smaller than the new file are left out, since downloading the file is faster.
+	 *
+	 * @param oldBuild the directory of the old build
+	 * @param newBuild the directory of the new build
+	 * @param patchDir the directory to write the patches and the index to
+	 * @return the number of patches
+	 * @throws IOException if a file could not be read or written
+	 */
+	public static int createPatches(File oldBuild, File newBuild, File patchDir) throws IOException {
+		List<String> paths = new ArrayList<>();
+		try(Stream<Path> files = Files.walk(newBuild.toPath())) {
+			for(Path path : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+				String relativePath = newBuild.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+				File oldFile = new File(oldBuild, relativePath);
+				File newFile = path.toFile();
+				if(!oldFile.isFile() || Arrays.equals(FileUtil.createChecksum(oldFile), FileUtil.createChecksum(newFile))) continue;
+
+				File patch = new File(patchDir, relativePath + EXTENSION);
+				Files.createDirectories(patch.getParentFile().toPath());
+				try(OutputStream out = new FileOutputStream(patch)) {
+					create(oldFile, newFile, out);
+				}
+				if(patch.length() >= newFile.length()) patch.delete();
+				else paths.add("./" + relativePath);
+			}
+		}
+		Files.createDirectories(patchDir.toPath());
+		Files.write(new File(patchDir, PatchIndex.INDEX_FILENAME).toPath(), paths, StandardCharsets.UTF_8);
+		return paths.size();
+	}
+
+	/**
+	 * Creates a patch from one version of a file to another.
+	 *
+	 * @param oldFile the file of the old build
+	 * @param newFile the file of the new build
+	 * @param out     the stream to write the patch to
+	 * @throws IOException if a file could not be read or is larger than 2GB
+	 */
+	public static void create(File oldFile, File newFile, OutputStream out) throws IOException {
+		MessageDigest digest = FileUtil.newSha1Digest();
+		try(FileChannel oldChannel = FileChannel.open(oldFile.toPath(), StandardOpenOption.READ);
+			FileChannel newChannel = FileChannel.open(newFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer base = oldChannel.map(FileChannel.MapMode.READ_ONLY, 0, oldChannel.size());
+			MappedByteBuffer target = newChannel.map(FileChannel.MapMode.READ_ONLY, 0, newChannel.size());
+			digest.update(base.duplicate());
+
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+			data.write(MAGIC);
+			data.write(digest.digest());
+			data.writeLong(target.limit());
+			new Writer(base, target, data).write();
+			data.writeByte(END);
+			data.flush();
+		}
+	}
+
+	/**
+	 * Applies a patch to the old version of a file.
+	 *
+	 * @param oldFile      the file to patch
+	 * @param oldChecksum  the SHA-1 digest of the old file, checked against the one the patch was made for
+	 * @param patch        the patch
+	 * @param destination  the file to write the new version to
+	 * @param cb           the progress callback, reporting the bytes written, may be null
+	 * @return the SHA-1 digest of the new file
+	 * @throws IOException if the patch was made for another file, is corrupt, or a file could not be accessed
+	 */
+	public static byte[] apply(File oldFile, byte[] oldChecksum, File patch, File destination, DownloadCallback cb) throws IOException {
+		MessageDigest digest = FileUtil.newSha1Digest();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(patch), BUFFER_SIZE));
+			RandomAccessFile base = new RandomAccessFile(oldFile, "r");
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE)) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new IOException("Not a patch file: " + patch);
+			byte[] patchedChecksum = new byte[oldChecksum.length];
+			in.readFully(patchedChecksum);
+			if(!Arrays.equals(patchedChecksum, oldChecksum)) throw new IOException("Patch " + patch + " was made for another version of " + oldFile);
+			long size = in.readLong();
+
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long written = 0;
+			int op;
+			while((op = in.readUnsignedByte()) != END) {
+				long offset = op == COPY ? in.readLong() : -1;
+				int length = in.readInt();
+				if(op != COPY && op != DATA || length < 0 || written + length > size) throw new IOException("Patch " + patch + " is corrupt");
+				if(op == COPY) {
+					if(offset < 0 || offset + length > base.length()) throw new IOException("Patch " + patch + " is corrupt");
+					base.seek(offset);
+				}
+				for(int left = length; left > 0; ) {
+					int n = Math.min(left, buffer.length);
+					if(op == COPY) base.readFully(buffer, 0, n);
+					else in.readFully(buffer, 0, n);
+					out.write(buffer, 0, n);
+					digest.update(buffer, 0, n);
+					left -= n;
+					written += n;
+					if(cb != null) cb.downloaded(written, n);
+				}
+			}
+			if(written != size) throw new IOException("Patch " + patch + " is corrupt");
+		} catch(EOFException exception) {
+			throw new IOException("Patch " + patch + " is truncated", exception);
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Finds the blocks of the old file in the new file, checking every offset of the new file with a rolling checksum.
+	 */
+	private static final class Writer {
+		private final MappedByteBuffer base;
+		private final MappedByteBuffer target;
+		private final DataOutputStream out;
+		private final Map<Integer, int[]> blocks = new HashMap<>();
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		private long copyOffset = -1;
+		private int copyLength;
+
+		Writer(MappedByteBuffer base, MappedByteBuffer target, DataOutputStream out) {
+			this.base = base;
+			this.target = target;
+			this.out = out;
+			for(int block = 0; (long) (block + 1) * BLOCK_SIZE <= base.limit(); block++) {
+				int hash = checksum(base, block * BLOCK_SIZE);
+				int[] candidates = blocks.get(hash);
+				if(candidates == null) blocks.put(hash, new int[] {block});
+				else if(candidates.length < 8) {
+					candidates = Arrays.copyOf(candidates, candidates.length + 1);
+					candidates[candidates.length - 1] = block;
+					blocks.put(hash, candidates);
+				}
+			}
+		}
+
+		void write() throws IOException {
+			int size = target.limit();
+			int position = 0;
+			int a = 0;
+			int b = 0;
+			boolean rolling = false;
+			while(position + BLOCK_SIZE <= size) {
+				if(!rolling) {
+					int hash = checksum(target, position);
+					a = hash & 0xFFFF;
+					b = hash >>> 16;
+					rolling = true;
+				}
+				int match = findBlock(a | b << 16, position);
+				if(match >= 0) {
+					// Extend the match as far as the files stay equal
+					int length = BLOCK_SIZE;
+					long offset = (long) match * BLOCK_SIZE;
+					while(position + length < size && offset + length < base.limit() && target.get(position + length) == base.get((int) (offset + length))) length++;
+					copy(offset, length);
+					position += length;
+					rolling = false;
+				} else {
+					// Roll the checksum one byte forward
+					int out = target.get(position) & 0xFF;
+					literal(out);
+					if(position + BLOCK_SIZE < size) {
+						int in = target.get(position + BLOCK_SIZE) & 0xFF;
+						a = (a - out + in) & 0xFFFF;
+						b = (b - BLOCK_SIZE * out + a) & 0xFFFF;
+					}
+					position++;
+				}
+			}
+			while(position < size) literal(target.get(position++) & 0xFF);
+			flushCopy();
+			flushData();
+		}
+
+		private int findBlock(int hash, int position) {
+			int[] candidates = blocks.get(hash);
+			if(candidates == null) return -1;
+			for(int block : candidates) {
+				if(target.slice(position, BLOCK_SIZE).equals(base.slice(block * BLOCK_SIZE, BLOCK_SIZE))) return block;
+			}
+			return -1;
+		}
+
+		private void copy(long offset, int length) throws IOException {
+			flushData();
+			if(copyOffset >= 0 && copyOffset + copyLength == offset && (long) copyLength + length <= Integer.MAX_VALUE) {
+				copyLength += length;
+				return;
+			}
+			flushCopy();
+			copyOffset = offset;
+			copyLength = length;
+		}
+
+		private void literal(int value) throws IOException {
+			flushCopy();
+			pending.write(value);
+			if(pending.size() >= BUFFER_SIZE) flushData();
+		}
+
+		private void flushCopy() throws IOException {
+			if(copyOffset < 0) return;
+			out.writeByte(COPY);
+			out.writeLong(copyOffset);
+			out.writeInt(copyLength);
+			copyOffset = -1;
+		}
+
+		private void flushData() throws IOException {
+			if(pending.size() == 0) return;
+			out.writeByte(DATA);
+			out.writeInt(pending.size());
+			pending.writeTo(out);
+			pending.reset();
+		}
+
+		private static int checksum(MappedByteBuffer buffer, int offset) {
+			int a = 0;
+			int b = 0;
+			for(int i = 0; i < BLOCK_SIZE; i++) {
+				int value = buffer.get(offset + i) & 0xFF;
+				a += value;
+				b += (BLOCK_SIZE - i) * value;
+			}
+			return (a & 0xFFFF) | (b & 0xFFFF) << 16;
+		}
+	}
+
+}
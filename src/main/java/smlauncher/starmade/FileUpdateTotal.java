@@ -1,13 +1,135 @@
 package smlauncher.starmade;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the progress of all downloads of an update. Downloads only add to lock-free counters, and a reporter
+ * reads them at a fixed rate and passes the progress on to the update callback.
+ */
 public class FileUpdateTotal {
 
-	public int total;
-	public int index;
-	public long totalSize;
-	public long currentSize;
-	public long lastSpeedSize;
-	public long startTime;
-	public double downloadSpeed;
+	private static final long REPORT_INTERVAL = 200; // ms
+	private static final double SPEED_WEIGHT = 0.3;
+
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicLong totalSize = new AtomicLong();
+	private final LongAdder currentSize = new LongAdder();
+	private volatile ChecksumFileEntry current;
+	volatile DownloadQueue queue;
+
+	// Only used by the reporter
+	private ScheduledExecutorService reporter;
+	private long lastSize = -1;
+	private long lastTime;
+	private volatile double downloadSpeed;
+
+	/**
+	 * Adds a file to download to the totals.
+	 *
+	 * @param entry the file
+	 * @return the index of the file
+	 */
+	int addFile(ChecksumFileEntry entry) {
+		totalSize.addAndGet(entry.size);
+		return total.getAndIncrement();
+	}
+
+	/**
+	 * Records downloaded bytes. Negative amounts remove bytes that were discarded.
+	 *
+	 * @param entry the file the bytes belong to
+	 * @param diff  the number of bytes
+	 */
+	void downloaded(ChecksumFileEntry entry, long diff) {
+		currentSize.add(diff);
+		current = entry;
+	}
+
+	public int getTotal() {
+		return total.get();
+	}
+
+	public long getTotalSize() {
+		return totalSize.get();
+	}
+
+	public long getCurrentSize() {
+		return currentSize.sum();
+	}
+
+	/**
+	 * Starts passing the progress to the callback at a fixed rate.
+	 *
+	 * @param cb the update callback
+	 */
+	synchronized void startReporting(FileDowloadCallback cb) {
+		reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Download Progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		lastTime = System.nanoTime();
+		reporter.scheduleAtFixedRate(() -> report(cb), REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the reporter after passing the final progress to the callback.
+	 *
+	 * @param cb the update callback
+	 */
+	synchronized void stopReporting(FileDowloadCallback cb) {
+		if(reporter == null) return;
+		reporter.shutdownNow();
+		try {
+			reporter.awaitTermination(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		reporter = null;
+		if(getTotal() > 0) cb.update(createUpdate(current));
+	}
+
+	private void report(FileDowloadCallback cb) {
+		long size = getCurrentSize();
+		long now = System.nanoTime();
+		if(size == lastSize) return;
+
+		double secs = (now - lastTime) / 1.0e9;
+		if(lastSize >= 0 && secs > 0) {
+			double speed = Math.max(0, size - lastSize) / secs;
+			downloadSpeed = downloadSpeed == 0 ? speed : SPEED_WEIGHT * speed + (1 - SPEED_WEIGHT) * downloadSpeed;
+		}
+		lastSize = size;
+		lastTime = now;
+		cb.update(createUpdate(current));
+	}
+
+	/**
+	 * Creates a snapshot of the progress.
+	 *
+	 * @param entry the file to show as the current one, may be null
+	 * @return the progress
+	 */
+	FileDownloadUpdate createUpdate(ChecksumFileEntry entry) {
+		FileDownloadUpdate u = new FileDownloadUpdate();
+		if(entry != null) {
+			u.downloaded = entry.downloadedBytes;
+			u.size = entry.size;
+			u.fileName = entry.relativePath.substring(entry.relativePath.lastIndexOf('/') + 1);
+			u.index = entry.index;
+		}
+		u.total = getTotal();
+		u.totalSize = getTotalSize();
+		u.currentSize = Math.max(0, Math.min(getCurrentSize(), u.totalSize));
+		u.downloadSpeed = downloadSpeed;
+		DownloadQueue q = queue;
+		u.eta = q != null ? q.estimateRemainingMillis(downloadSpeed) : -1;
+		return u;
+	}
 
 }
@@ -1,11 +1,17 @@
 package smlauncher.starmade;
 
 import org.apache.commons.io.output.StringBuilderWriter;
+import smlauncher.util.OperatingSystem;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -44,6 +50,14 @@ public class FileUtil {
 	 * The default buffer size ({@value}) to use for
 	 */
 	private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
+	private static final int CHECKSUM_BUFFER_SIZE = 1024 * 256;
+	private static final long CHECKSUM_MAP_THRESHOLD = 1024 * 1024 * 16;
+	private static final long CHECKSUM_MAP_SIZE = 1024 * 1024 * 256;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final ThreadLocal<MessageDigest> SHA1_DIGEST = ThreadLocal.withInitial(FileUtil::newSha1Digest);
+	private static final ThreadLocal<ByteBuffer> CHECKSUM_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE));
+	private static final ThreadLocal<byte[]> CHECKSUM_ARRAY = ThreadLocal.withInitial(() -> new byte[CHECKSUM_BUFFER_SIZE]);
+	private static final ThreadLocal<char[]> HEX_CHARS = ThreadLocal.withInitial(() -> new char[40]);
 
 	static {
 		// avoid security issues
@@ -88,26 +102,36 @@ public class FileUtil {
 
 	public static void copyFile(File sourceLocation, File targetLocation) throws IOException {
 		System.err.println("[IO][COPY] FILE FROM " + sourceLocation.getAbsolutePath() + " to " + targetLocation.getAbsolutePath());
-		InputStream in = new BufferedInputStream(new FileInputStream(sourceLocation));
-		OutputStream out = new BufferedOutputStream(new FileOutputStream(targetLocation));
+		// Lets the operating system copy the data where it can, instead of passing it through the heap
+		Files.copy(sourceLocation.toPath(), targetLocation.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
 
-		// Copy the bits from instream to outstream
-		byte[] buf = new byte[1024];
-		int len;
-		while((len = in.read(buf)) > 0) {
-			out.write(buf, 0, len);
+	/**
+	 * Copies a stream to another and closes both. Copies between files are done by the operating system.
+	 */
+	public static final void copyInputStream(InputStream in, OutputStream out) throws IOException {
+		try(in; out) {
+			if(in instanceof FileInputStream && out instanceof FileOutputStream) {
+				transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel());
+			} else {
+				in.transferTo(out);
+			}
 		}
-		out.flush();
-		in.close();
-		out.close();
 	}
 
-	public static final void copyInputStream(InputStream in, OutputStream out) throws IOException {
-		byte[] buffer = new byte[1024];
-		int len;
-		while((len = in.read(buffer)) >= 0) out.write(buffer, 0, len);
-		in.close();
-		out.close();
+	/**
+	 * Copies the rest of a file channel to another channel, using the operating system's zero-copy transfer where
+	 * it is available.
+	 */
+	public static void transfer(FileChannel in, FileChannel out) throws IOException {
+		long position = in.position();
+		long size = in.size();
+		while(position < size) {
+			long n = in.transferTo(position, size - position, out);
+			if(n <= 0) break;
+			position += n;
+		}
+		in.position(position);
 	}
 
 	public static File createTempDirectory(String name) throws IOException {
@@ -305,49 +329,6 @@ public class FileUtil {
 		copyInputStreamToFile(input, destination, cb);
 	}
 
-	public static void copyURLToFile(URL source, File destination, int connectionTimeout, int readTimeout, DownloadCallback cb, String user, String pass, boolean resume) throws IOException {
-		URLConnection connection = null;
-		try {
-			connection = source.openConnection();
-			connection.setConnectTimeout(connectionTimeout);
-			connection.setReadTimeout(readTimeout);
-			// #RM1958 swap out Base64 encoder
-			//			String encoding = Base64.encode((user+":"+pass).getBytes());
-			//			connection.setRequestProperty ("Authorization", "Basic " + encoding);
-			InputStream input;
-
-			if(resume) {
-				if(destination.exists()) {
-					long downloadedSize = destination.length();
-					connection.setAllowUserInteraction(true);
-					connection.setRequestProperty("Range", "bytes=" + downloadedSize + "-");
-					connection.setConnectTimeout(14000);
-					input = new BufferedInputStream(connection.getInputStream());
-					input.skip(downloadedSize); //Skip downloaded size
-				} else {
-					input = new BufferedInputStream(connection.getInputStream());
-				}
-
-			} else {
-				input = new BufferedInputStream(connection.getInputStream());
-			}
-
-			copyInputStreamToFile(input, destination, cb);
-		} catch(IOException e) {
-			if(resume) {
-				try {
-					System.err.println("Disconnected: " + e.getClass() + ": " + e.getMessage() + "! Trying to resume download!");
-					Thread.sleep(1000);
-				} catch(InterruptedException e1) {
-					e1.printStackTrace();
-				}
-				copyURLToFile(source, destination, connectionTimeout, readTimeout, cb, user, pass, resume);
-			} else {
-				throw e;
-			}
-		}
-	}
-
 	/**
 	 * Copies bytes from an {@link InputStream} {@code source} to a file
 	 * {@code destination}. The directories up to {@code destination}
@@ -827,25 +808,43 @@ public class FileUtil {
 		return count;
 	}
 
-	public static byte[] createChecksum(File filename) throws IOException {
-		InputStream fis = new BufferedInputStream(new FileInputStream(filename));
-
-		byte[] buffer = new byte[1024];
-		MessageDigest complete;
+	/**
+	 * Creates a SHA-1 message digest, which every Java platform is required to support.
+	 *
+	 * @return the new digest
+	 */
+	public static MessageDigest newSha1Digest() {
 		try {
-			complete = MessageDigest.getInstance("SHA1");
-
-			int numRead;
+			return MessageDigest.getInstance("SHA1");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 
-			while((numRead = fis.read(buffer)) != -1) {
-				complete.update(buffer, 0, numRead);
+	/**
+	 * Computes the SHA-1 digest of a file. The digest and read buffer are reused per thread, and files larger than
+	 * {@link #CHECKSUM_MAP_THRESHOLD} are memory-mapped instead of read.
+	 */
+	public static byte[] createChecksum(File filename) throws IOException {
+		MessageDigest complete = SHA1_DIGEST.get();
+		complete.reset();
+		try(FileChannel channel = FileChannel.open(filename.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > CHECKSUM_MAP_THRESHOLD && OperatingSystem.getCurrent() != OperatingSystem.WINDOWS) {
+				// Windows keeps mapped files locked until the mapping is garbage collected
+				for(long position = 0; position < size; position += CHECKSUM_MAP_SIZE) {
+					complete.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHECKSUM_MAP_SIZE, size - position)));
+				}
+			} else {
+				ByteBuffer buffer = CHECKSUM_BUFFER.get();
+				buffer.clear();
+				while(channel.read(buffer) != EOF) {
+					buffer.flip();
+					complete.update(buffer);
+					buffer.clear();
+				}
 			}
-
 			return complete.digest();
-		} catch(NoSuchAlgorithmException e) {
-			throw new IOException(e);
-		} finally {
-			fis.close();
 		}
 	}
 
@@ -854,64 +853,61 @@ public class FileUtil {
 	}
 
 	public static byte[] createChecksumZipped(String filename) throws IOException {
-		GZIPInputStream fis = new GZIPInputStream(new BufferedInputStream(new FileInputStream(filename)));
-
-		byte[] buffer = new byte[1024];
-		MessageDigest complete;
-		try {
-			complete = MessageDigest.getInstance("SHA1");
-
+		MessageDigest complete = SHA1_DIGEST.get();
+		complete.reset();
+		try(GZIPInputStream fis = new GZIPInputStream(new FileInputStream(filename), DEFAULT_BUFFER_SIZE)) {
+			byte[] buffer = CHECKSUM_ARRAY.get();
 			int numRead;
-
-			while((numRead = fis.read(buffer)) != -1) {
+			while((numRead = fis.read(buffer)) != EOF) {
 				complete.update(buffer, 0, numRead);
 			}
-
 			return complete.digest();
-		} catch(NoSuchAlgorithmException e) {
-			throw new IOException(e);
-		} finally {
-			fis.close();
 		}
 	}
 
-	// see this How-to for a faster way to convert
-	// a byte array to a HEX string
 	public static String getSha1Checksum(String filename) throws IOException {
-		byte[] b = new byte[0];
-		try {
-			b = createChecksum(filename);
-		} catch(NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}
-		String result = "";
-
-		for(int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-		}
-		return result;
+		return toHexString(createChecksum(new File(filename)));
 	}
 
-	// see this How-to for a faster way to convert
-	// a byte array to a HEX string
 	public static String getSha1ChecksumZipped(String filename) throws IOException {
-		byte[] b = createChecksumZipped(filename);
-		String result = "";
-
-		for(int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-		}
-		return result;
+		return toHexString(createChecksumZipped(filename));
 	}
 
 	public static String getSha1Checksum(File filename) throws IOException {
-		byte[] b = createChecksum(filename);
-		String result = "";
+		return toHexString(createChecksum(filename));
+	}
 
-		for(int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+	/**
+	 * Encodes bytes as a lowercase hex string, using a per-thread character buffer.
+	 */
+	public static String toHexString(byte[] bytes) {
+		char[] chars = HEX_CHARS.get();
+		if(chars.length < bytes.length * 2) {
+			chars = new char[bytes.length * 2];
+			HEX_CHARS.set(chars);
 		}
-		return result;
+		for(int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		return new String(chars, 0, bytes.length * 2);
+	}
+
+	/**
+	 * Decodes a hex string into bytes.
+	 *
+	 * @throws IllegalArgumentException if the string is not valid hex
+	 */
+	public static byte[] fromHexString(String hex) {
+		if(hex.length() % 2 != 0) throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+		byte[] bytes = new byte[hex.length() / 2];
+		for(int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if(high < 0 || low < 0) throw new IllegalArgumentException("Invalid hex string: " + hex);
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
 	}
 
 	public static String fileToString(File file) throws IOException {
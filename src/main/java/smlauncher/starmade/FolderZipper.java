@@ -1,11 +1,9 @@
 package smlauncher.starmade;
 
 import java.io.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
- * FolderZiper provide a static method to zip a folder.
+ * FolderZiper provide a static method to zip a folder. Files are compressed on all cores by {@link ParallelZipOutput}.
  */
 public class FolderZipper {
 
@@ -13,12 +11,10 @@ public class FolderZipper {
 	 * add the srcFolder to the zip stream.
 	 *
 	 * @param path   String, the relatif path with the root archive.
-	 * @param zip    ZipOutputStram, the stream to use to write the given file.
-	 * @param buf
-	 * @param cb
+	 * @param zip    ParallelZipOutput, the archive to add the given folder to.
 	 * @param filter
 	 */
-	private static void addFolderToZip(String path, String srcFolder, ZipOutputStream zip, String startsWithFilter, byte[] buf, ZipCallback cb, FileFilter filter) {
+	private static void addFolderToZip(String path, String srcFolder, ParallelZipOutput zip, String startsWithFilter, FileFilter filter) throws IOException {
 
 		path.replace('\\', '/');
 		srcFolder.replace('\\', '/');
@@ -27,17 +23,13 @@ public class FolderZipper {
 		if(filter != null && !filter.accept(folder)) {
 			return;
 		}
-		if(cb != null) {
-			cb.update(folder);
-		}
+		zip.addFolder(folder);
 		String[] fileListe = folder.list();
-		try {
-			for(int i = 0; i < fileListe.length; i++) {
-				if(startsWithFilter == null || !fileListe[i].startsWith(startsWithFilter)) {
-					addToZip(path + "/" + folder.getName(), srcFolder + "/" + fileListe[i], zip, startsWithFilter, buf, cb, filter);
-				}
+		if(fileListe == null) return;
+		for(int i = 0; i < fileListe.length; i++) {
+			if(startsWithFilter == null || !fileListe[i].startsWith(startsWithFilter)) {
+				addToZip(path + "/" + folder.getName(), srcFolder + "/" + fileListe[i], zip, startsWithFilter, filter);
 			}
-		} catch(Exception ex) {
 		}
 	}
 
@@ -48,12 +40,10 @@ public class FolderZipper {
 	 *
 	 * @param path    String, the relatif path with the root archive.
 	 * @param srcFile String, the absolute path of the file to add
-	 * @param zip     ZipOutputStram, the stream to use to write the given file.
-	 * @param buf
-	 * @param cb
+	 * @param zip     ParallelZipOutput, the archive to add the given file to.
 	 * @param filter
 	 */
-	private static void addToZip(String path, String srcFile, ZipOutputStream zip, String startsWithFilter, byte[] buf, ZipCallback cb, FileFilter filter) {
+	private static void addToZip(String path, String srcFile, ParallelZipOutput zip, String startsWithFilter, FileFilter filter) throws IOException {
 
 		path.replace('\\', '/');
 		srcFile.replace('\\', '/');
@@ -64,37 +54,14 @@ public class FolderZipper {
 			return;
 		}
 		if(folder.isDirectory()) {
-			addFolderToZip(path, srcFile, zip, startsWithFilter, buf, cb, filter);
+			addFolderToZip(path, srcFile, zip, startsWithFilter, filter);
 		} else {
-
-			if(cb != null) {
-				cb.update(new File(srcFile));
-			}
-
-			int len;
-			try {
-				FileInputStream in = new FileInputStream(srcFile);
-
-				String entryName;
-				// if(path.length() > 0){
-				entryName = path + "/" + folder.getName();
-				if(entryName.startsWith("/")) {
-					entryName = entryName.substring(1);
-				}
-				//				System.err.println("[ZIP] PUTTING: "+entryName);
-				// }else{
-				// entryName = folder.getName();
-				// }
-				ZipEntry zipEntry = new ZipEntry(entryName);
-				zip.putNextEntry(zipEntry);
-
-				while((len = in.read(buf)) > 0) {
-					zip.write(buf, 0, len);
-				}
-				in.close();
-			} catch(Exception ex) {
-				ex.printStackTrace();
+			String entryName = path + "/" + folder.getName();
+			if(entryName.startsWith("/")) {
+				entryName = entryName.substring(1);
 			}
+			// Reported to the callback once it is written
+			zip.addFile(entryName, new File(srcFile));
 		}
 	}
 
@@ -118,38 +85,27 @@ public class FolderZipper {
 	}
 
 	public static void zipFolder(String srcFolder, String destZipFile, String startsWithFilter, ZipCallback cb, String pathPrefix, FileFilter filter, boolean skipSelfFolder) throws IOException {
-		ZipOutputStream zip = null;
-		BufferedOutputStream fileWriter = null;
-
 		System.out.println("[ZIP] Zipping folder: " + srcFolder + " to " + destZipFile + " (Filter: " + startsWithFilter + ")");
 		destZipFile.replace('\\', '/');
 		srcFolder.replace('\\', '/');
 		File destFile = new File(destZipFile);
 		File src = new File(srcFolder);
 		System.out.println("[ZIP] Writing to " + destFile.getAbsolutePath());
-		fileWriter = new BufferedOutputStream(new FileOutputStream(destFile), 4096);
-		zip = new ZipOutputStream(fileWriter);
-
-		// Transfer bytes from in to out
-		byte[] buf = new byte[1024 * 4];
-		if(!skipSelfFolder) {
-			addFolderToZip(pathPrefix, srcFolder, zip, startsWithFilter, buf, cb, filter);
-		} else {
-			String[] fileListe = src.list();
-			try {
-				for(int i = 0; i < fileListe.length; i++) {
-					if(startsWithFilter == null || !fileListe[i].startsWith(startsWithFilter)) {
-						addToZip("", srcFolder + "/" + fileListe[i], zip, startsWithFilter, buf, cb, filter);
+		try(ParallelZipOutput zip = new ParallelZipOutput(destFile, cb)) {
+			if(!skipSelfFolder) {
+				addFolderToZip(pathPrefix, srcFolder, zip, startsWithFilter, filter);
+			} else {
+				String[] fileListe = src.list();
+				if(fileListe != null) {
+					for(int i = 0; i < fileListe.length; i++) {
+						if(startsWithFilter == null || !fileListe[i].startsWith(startsWithFilter)) {
+							addToZip("", srcFolder + "/" + fileListe[i], zip, startsWithFilter, filter);
+						}
 					}
 				}
-			} catch(Exception ex) {
 			}
+			zip.finish();
 		}
-
-		zip.flush();
-		zip.close();
-		fileWriter.close();
-
 	}
 
 	public static void zipFolder(String srcFolder, String destZipFile, String startsWithFilter, ZipCallback cb, FileFilter filter) throws IOException {
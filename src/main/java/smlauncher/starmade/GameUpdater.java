@@ -1,18 +1,21 @@
 package smlauncher.starmade;
 
 import com.formdev.flatlaf.FlatDarkLaf;
+import smlauncher.RemoteMetadata;
 import smlauncher.StarMadeLauncher;
+import smlauncher.util.HttpCache;
 import smlauncher.util.OperatingSystem;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Updates the game to a given version.
@@ -34,7 +37,6 @@ public class GameUpdater extends Observable {
 	public final ArrayList<IndexFileEntry> versions = new ArrayList<>();
 	private final ArrayList<String> mirrorURLs = new ArrayList<>();
 	private final StarMadeBackupTool backup = new StarMadeBackupTool();
-	boolean loading;
 	boolean versionsLoaded;
 	private boolean updating;
 
@@ -45,10 +47,7 @@ public class GameUpdater extends Observable {
 	public static void withoutGUI(boolean force, String installDir, GameBranch branch, int backUp, boolean selectVersion) {
 		GameUpdater u = new GameUpdater(installDir);
 		try {
-			u.startLoadVersionList(branch);
-			while(u.loading) {
-				Thread.sleep(100);
-			}
+			u.startLoadVersionList(branch).join();
 
 			if(selectVersion) selectVersion(true, u, force, installDir, branch, backUp, selectVersion);
 			else {
@@ -57,8 +56,8 @@ public class GameUpdater extends Observable {
 					u.startUpdateNew(installDir, u.versions.get(u.versions.size() - 1), false, backUp);
 				} else System.err.println("You Are Already on the Newest Version: use -force to force an update");
 			}
-		} catch(InterruptedException e) {
-			e.printStackTrace();
+		} catch(CompletionException e) {
+			e.getCause().printStackTrace();
 		}
 	}
 
@@ -91,17 +90,39 @@ public class GameUpdater extends Observable {
 		u.startUpdateNew(installDir, u.versions.get(k), false, backUp);
 	}
 
+	/**
+	 * Finishes moving the files of an update that was interrupted while it was being installed, so the game is never
+	 * started from a half-installed build.
+	 *
+	 * @param installDir the install directory
+	 * @throws IOException if the update could not be finished
+	 */
+	public static void recoverInterruptedUpdate(String installDir) throws IOException {
+		new StagedUpdate(new File(installDir)).recover();
+	}
+
 	public static String getRemoteLauncherVersion() throws IOException {
-		URL urlVersion = new URL(LAUNCHER_VERSION_SITE);
-		URLConnection openConnection = urlVersion.openConnection();
-		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-		openConnection.setConnectTimeout(10000);
-		openConnection.setReadTimeout(10000);
-		// Read all the text returned by the server
-		BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
-		String version = in.readLine();
-		in.close();
-		return version;
+		try(BufferedReader in = RemoteMetadata.getReader(LAUNCHER_VERSION_SITE)) {
+			return in.readLine();
+		}
+	}
+
+	/**
+	 * Gets the base URLs of the download mirrors. Blank lines and lines starting with # are ignored.
+	 *
+	 * @return the mirror URLs
+	 * @throws IOException if the mirror list could not be retrieved
+	 */
+	public static List<String> getMirrorURLs() throws IOException {
+		List<String> mirrors = new ArrayList<>();
+		try(BufferedReader in = RemoteMetadata.getReader(MIRROR_SITE)) {
+			String str;
+			while((str = in.readLine()) != null) {
+				str = str.trim();
+				if(!str.isEmpty() && !str.startsWith("#")) mirrors.add(str);
+			}
+		}
+		return mirrors;
 	}
 
 	public static int askBackup(JFrame f) {
@@ -157,7 +178,6 @@ public class GameUpdater extends Observable {
 		setChanged();
 		notifyObservers("Retrieving Launcher Version");
 
-		loading = true;
 		try {
 			versions.clear();
 			String version = getRemoteLauncherVersion();
@@ -170,51 +190,27 @@ public class GameUpdater extends Observable {
 			(new ErrorDialog("Error", "IO Error", e)).setVisible(true);
 		} catch(OldVersionException e) {
 			e.printStackTrace();
-		} finally {
-			loading = false;
 		}
 
 		setChanged();
 		notifyObservers("Retrieving Mirrors");
-		loading = true;
-		URL urlMirrors;
 		try {
 			versions.clear();
-			urlMirrors = new URL(MIRROR_SITE);
-
-			URLConnection openConnection = urlMirrors.openConnection();
-			openConnection.setConnectTimeout(10000);
-			openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-			int version = 0;
-			// Read all the text returned by the server
-			BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
-			String str;
-			while((str = in.readLine()) != null) mirrorURLs.add(str);
-			in.close();
+			mirrorURLs.clear();
+			mirrorURLs.addAll(getMirrorURLs());
 		} catch(MalformedURLException e) {
 			e.printStackTrace();
 			(new ErrorDialog("Error", "Malformed URL", e)).setVisible(true);
 		} catch(IOException e) {
 			e.printStackTrace();
 			(new ErrorDialog("Error", "IO Error", e)).setVisible(true);
-		} finally {
-			loading = false;
 		}
 
 		setChanged();
 		notifyObservers("Retrieving Versions");
-		loading = true;
-		URL url;
 		try {
 			versions.clear();
-			url = new URL(branch.url);
-
-			URLConnection openConnection = url.openConnection();
-			openConnection.setConnectTimeout(10000);
-			openConnection.setReadTimeout(10000);
-			openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-			// Read all the text returned by the server
-			BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
+			BufferedReader in = RemoteMetadata.getReader(branch.url);
 			String str;
 			while((str = in.readLine()) != null) {
 				versions.add(IndexFileEntry.create(str, branch));
@@ -226,15 +222,12 @@ public class GameUpdater extends Observable {
 			versionsLoaded = true;
 			setChanged();
 			notifyObservers("versions loaded");
-			openConnection.getInputStream().close();
 		} catch(MalformedURLException e) {
 			e.printStackTrace();
 			(new ErrorDialog("Error", "Malformed URL", e)).setVisible(true);
 		} catch(IOException e) {
 			e.printStackTrace();
 			(new ErrorDialog("Error", "IO Error", e)).setVisible(true);
-		} finally {
-			loading = false;
 		}
 	}
 
@@ -246,15 +239,24 @@ public class GameUpdater extends Observable {
 		}
 	}
 
-	public void startLoadVersionList(GameBranch branch) {
-		loading = true;
+	/**
+	 * Loads the version list of a branch in the background.
+	 *
+	 * @param branch the branch
+	 * @return completes once the versions are loaded, or exceptionally if loading failed
+	 */
+	public CompletableFuture<Void> startLoadVersionList(GameBranch branch) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
 		new Thread(() -> {
 			try {
 				loadVersionList(branch);
-			} catch(IOException e) {
+				result.complete(null);
+			} catch(Throwable e) {
 				e.printStackTrace();
+				result.completeExceptionally(e);
 			}
 		}).start();
+		return result;
 	}
 
 	public void startUpdateNew(String installDirStr, IndexFileEntry newest, boolean forced, int backupFromMain) {
@@ -379,12 +381,15 @@ public class GameUpdater extends Observable {
 				setChanged();
 				notifyObservers("Retrieving checksums for v" + version.version + "(build " + version.build + ")");
 
-				// TODO reused code
-				String buildDir = FILES_URL + version.path + "/";
-				ChecksumFile checksums = getChecksums(buildDir);
+				ChecksumFile checksums = getChecksums(version);
 				System.err.println("Downloaded checksums: \n" + checksums);
 
-				checksums.download(forced, buildDir, installDir, installDirStr, new FileDowloadCallback() {
+				// The mirrors are only checked once a file has to be downloaded
+				checksums.download(forced, () -> {
+					setChanged();
+					notifyObservers("Checking mirrors");
+					return MirrorSelector.load(version.path);
+				}, installDir, installDirStr, new FileDowloadCallback() {
 					@Override
 					public void update(FileDownloadUpdate u) {
 						setChanged();
@@ -433,14 +438,8 @@ public class GameUpdater extends Observable {
 
 	public Eula getEula() throws IOException {
 		System.err.println("URL::: " + FILES_URL + "/smeula.txt");
-		URL urlVersion = new URL(FILES_URL + "/smeula.txt");
-		URLConnection openConnection = urlVersion.openConnection();
-		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-		openConnection.setConnectTimeout(10000);
-		openConnection.setReadTimeout(10000);
 		Eula e = new Eula();
-		// Read all the text returned by the server
-		BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
+		BufferedReader in = HttpCache.getReader(FILES_URL + "/smeula.txt");
 		StringBuilder b = new StringBuilder();
 		String line;
 		while((line = in.readLine()) != null) {
@@ -462,17 +461,25 @@ public class GameUpdater extends Observable {
 		return e;
 	}
 
+	/**
+	 * Gets the checksum file of a build, from the build cache if the build was installed recently.
+	 *
+	 * @param version the build
+	 * @return the checksum file
+	 * @throws IOException if the checksum file could not be retrieved
+	 */
+	public static ChecksumFile getChecksums(IndexFileEntry version) throws IOException {
+		BuildCache cache = BuildCache.open();
+		ChecksumFile checksums = cache != null ? cache.getChecksums(version.build) : null;
+		if(checksums != null) {
+			System.err.println("[UPDATER] Using cached build " + version.build);
+			return checksums;
+		}
+		return getChecksums(FILES_URL + version.path);
+	}
+
 	public static ChecksumFile getChecksums(String relPath) throws IOException {
-		URL urlVersion = new URL(relPath + "/checksums");
-		URLConnection openConnection = urlVersion.openConnection();
-		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-		openConnection.setConnectTimeout(10000);
-		openConnection.setReadTimeout(10000);
-		BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
-		ChecksumFile f = new ChecksumFile();
-		f.parse(in);
-		in.close();
-		return f;
+		return ManifestCache.parse(HttpCache.get(relPath + "/checksums"));
 	}
 
 }
@@ -0,0 +1,353 @@
+package smlauncher.starmade;
+
+import smlauncher.LaunchSettings;
+import smlauncher.StarMadeLauncher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads game files through one shared HTTP client, so connections to a host are kept alive and reused between
+ * files, and requests are multiplexed over HTTP/2 when the server supports it.
+ * <p>
+ * Files are requested gzip-compressed and decompressed while they are written, if the server supports it. Resuming a
+ * file requests the rest uncompressed, as ranges of a compressed response do not line up with the file.
+ */
+public final class HttpDownloader {
+
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(50);
+	private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(50);
+	static final long STALL_TIMEOUT = TimeUnit.SECONDS.toNanos(20);
+	static final int MAX_ATTEMPTS = 5;
+	private static final long INITIAL_BACKOFF = 1000;
+	private static final long MAX_BACKOFF = 30000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Download Watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static HttpClient client;
+
+	private HttpDownloader() {
+	}
+
+	/**
+	 * Gets the shared HTTP client, creating it on first use.
+	 *
+	 * @return the HTTP client
+	 */
+	public static synchronized HttpClient getClient() {
+		if(client == null) {
+			client = HttpClient.newBuilder()
+					.version(HttpClient.Version.HTTP_2)
+					.followRedirects(HttpClient.Redirect.NORMAL)
+					.connectTimeout(CONNECT_TIMEOUT)
+					.build();
+		}
+		return client;
+	}
+
+	/**
+	 * Downloads a file, reporting progress through the given callback. If the destination already holds the start of
+	 * the file, only the rest is requested. A failed or stalled transfer is resumed after a growing delay, keeping the
+	 * data received so far, up to {@link #MAX_ATTEMPTS} times.
+	 *
+	 * @param source      the file URI
+	 * @param destination the file to write to, resumed if it exists
+	 * @param cb          the progress callback, may be null
+	 * @throws IOException if the server does not return the file, every attempt failed or the file cannot be written
+	 */
+	public static void download(URI source, File destination, DownloadCallback cb) throws IOException {
+		download(source, destination, null, cb);
+	}
+
+	private static void download(URI source, File destination, MessageDigest digest, DownloadCallback cb) throws IOException {
+		long existing = destination.exists() ? destination.length() : 0;
+		if(cb != null && existing > 0) cb.downloaded(existing, existing);
+		if(digest != null && existing > 0) digestFile(destination, digest);
+
+		for(int attempt = 1; ; attempt++) {
+			try {
+				downloadOnce(source, destination, digest, cb);
+				break;
+			} catch(InterruptedIOException exception) {
+				throw exception;
+			} catch(IOException exception) {
+				if(attempt >= MAX_ATTEMPTS || !isRetryable(exception)) throw exception;
+				long backoff = getBackoff(attempt);
+				System.err.println("[UPDATER] Download of " + source + " failed, resuming in " + backoff + "ms: " + exception.getMessage());
+				sleep(backoff, source);
+			}
+		}
+		if(cb != null) cb.doneDownloading();
+	}
+
+	private static void downloadOnce(URI source, File destination, MessageDigest digest, DownloadCallback cb) throws IOException {
+		long offset = destination.exists() ? destination.length() : 0;
+		HttpRequest.Builder request = newRequest(source);
+		if(offset > 0) request.header("Range", "bytes=" + offset + "-");
+		else request.header("Accept-Encoding", "gzip");
+
+		HttpResponse<InputStream> response;
+		try {
+			response = getClient().send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Download of " + source + " was interrupted");
+		}
+
+		int status = response.statusCode();
+		long[] range = RangeDownload.parseContentRange(response.headers().firstValue("Content-Range").orElse(null));
+		if(offset > 0 && status == 206) {
+			if(range == null || range[0] != offset) {
+				FileUtil.closeQuietly(response.body());
+				discard(destination, offset, digest, cb);
+				throw new IOException("Server sent the wrong range for " + source + ", starting over");
+			}
+		} else if(offset > 0 && status == 416) {
+			FileUtil.closeQuietly(response.body());
+			if(range != null && range[2] == offset) return; // Already complete
+			discard(destination, offset, digest, cb);
+			throw new IOException("Partial download of " + source + " is larger than the file, starting over");
+		} else if(status == 200) {
+			// The server sent the whole file
+			if(offset > 0) discard(destination, offset, digest, cb);
+			offset = 0;
+		} else {
+			FileUtil.closeQuietly(response.body());
+			throw new HttpStatusException(status, "Server returned HTTP " + status + " for " + source);
+		}
+		copy(source, response, destination, offset, digest, cb);
+	}
+
+	private static void discard(File destination, long downloaded, MessageDigest digest, DownloadCallback cb) throws IOException {
+		if(destination.exists() && !destination.delete()) throw new IOException("Could not delete " + destination);
+		if(digest != null) digest.reset();
+		if(cb != null) cb.downloaded(0, -downloaded);
+	}
+
+	private static boolean isRetryable(IOException exception) {
+		if(!(exception instanceof HttpStatusException)) return true;
+		int status = ((HttpStatusException) exception).status;
+		return status >= 500 || status == 408 || status == 429;
+	}
+
+	/**
+	 * Gets the delay before retrying a failed download, doubling with every attempt up to {@link #MAX_BACKOFF}.
+	 *
+	 * @param attempt the number of the attempt that failed, starting at 1
+	 * @return the delay in milliseconds
+	 */
+	static long getBackoff(int attempt) {
+		return Math.min(INITIAL_BACKOFF << Math.min(attempt - 1, 20), MAX_BACKOFF);
+	}
+
+	private static void sleep(long millis, URI source) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Download of " + source + " was interrupted");
+		}
+	}
+
+	/**
+	 * Downloads a game file and checks it against its checksum. The checksum is computed from the data as it is
+	 * written, so the file does not have to be read again. Files of at least the chunked download size set in the
+	 * launch settings are downloaded as several ranges at once. A file that does not match its checksum is deleted,
+	 * so the next attempt starts over.
+	 *
+	 * @param source      the file URI
+	 * @param destination the file to write to, resumed if it exists
+	 * @param size        the expected size of the file
+	 * @param checksum    the expected SHA-1 digest of the file
+	 * @param cb          the progress callback, may be null
+	 * @throws IOException if the download fails or the file does not match its checksum
+	 */
+	public static void download(URI source, File destination, long size, byte[] checksum, DownloadCallback cb) throws IOException {
+		boolean resumed = destination.length() > 0;
+		byte[] downloaded = downloadAndDigest(source, destination, size, cb);
+		if(!Arrays.equals(downloaded, checksum) && resumed) {
+			// The part file of an earlier attempt may be from another version of the file
+			System.err.println("[UPDATER] Resumed download of " + source + " does not match its checksum, starting over");
+			if(cb != null) cb.downloaded(0, -destination.length());
+			discardPart(destination);
+			downloaded = downloadAndDigest(source, destination, size, cb);
+		}
+		if(!Arrays.equals(downloaded, checksum)) {
+			discardPart(destination);
+			throw new IOException("Checksum of " + source + " does not match: " + FileUtil.toHexString(downloaded) + " instead of " + FileUtil.toHexString(checksum));
+		}
+	}
+
+	private static byte[] downloadAndDigest(URI source, File destination, long size, DownloadCallback cb) throws IOException {
+		long threshold = LaunchSettings.getChunkedDownloadMb() * 1024L * 1024L;
+		if(threshold > 0 && size >= threshold && size > RangeDownload.CHUNK_SIZE) {
+			try {
+				return new RangeDownload(source, size, cb).download(destination);
+			} catch(RangeDownload.RangesNotSupportedException exception) {
+				System.err.println("[UPDATER] " + exception.getMessage() + ", downloading it in one piece");
+			}
+		}
+
+		// A part file left by a range download is preallocated and cannot be resumed by a single stream
+		if(RangeDownload.getStateFile(destination).exists()) discardPart(destination);
+		MessageDigest digest = FileUtil.newSha1Digest();
+		download(source, destination, digest, cb);
+		return digest.digest();
+	}
+
+	private static void discardPart(File destination) {
+		RangeDownload.getStateFile(destination).delete();
+		destination.delete();
+	}
+
+	private static void digestFile(File file, MessageDigest digest) throws IOException {
+		try(InputStream input = new FileInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while((n = input.read(buffer)) != -1) digest.update(buffer, 0, n);
+		}
+	}
+
+	static HttpRequest.Builder newRequest(URI source) {
+		return HttpRequest.newBuilder(source)
+				.timeout(RESPONSE_TIMEOUT)
+				.header("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION)
+				.GET();
+	}
+
+	static ScheduledFuture<?> scheduleWatchdog(Runnable check) {
+		return WATCHDOG.scheduleWithFixedDelay(check, 1, 1, TimeUnit.SECONDS);
+	}
+
+	private static void copy(URI source, HttpResponse<InputStream> response, File destination, long offset, MessageDigest digest, DownloadCallback cb) throws IOException {
+		CountingInputStream input = new CountingInputStream(response.body());
+		String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim().toLowerCase();
+		boolean compressed = encoding.equals("gzip") || encoding.equals("x-gzip");
+		if(!compressed && !encoding.equals("identity")) {
+			FileUtil.closeQuietly(input);
+			throw new IOException("Server sent " + source + " with unsupported encoding " + encoding);
+		}
+		long[] lastProgress = {System.nanoTime()};
+		boolean[] stalled = new boolean[1];
+		ScheduledFuture<?> watchdog = scheduleWatchdog(() -> {
+			synchronized(lastProgress) {
+				if(System.nanoTime() - lastProgress[0] < STALL_TIMEOUT) return;
+				stalled[0] = true;
+			}
+			// Closing the body cancels the transfer and wakes up the blocked read
+			FileUtil.closeQuietly(input);
+		});
+
+		long count = 0;
+		long received = 0;
+		try(OutputStream output = FileUtil.openOutputStream(destination, offset > 0)) {
+			// The data written so far stays a valid start of the file if a compressed transfer breaks off
+			InputStream data = compressed ? new GZIPInputStream(input, BUFFER_SIZE) : input;
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while((n = data.read(buffer)) != -1) {
+				output.write(buffer, 0, n);
+				if(digest != null) digest.update(buffer, 0, n);
+				count += n;
+				synchronized(lastProgress) {
+					lastProgress[0] = System.nanoTime();
+				}
+				if(cb != null) cb.downloaded(offset + count, n);
+				// The limit applies to the data sent over the network
+				long wait = BandwidthLimiter.reserve(input.count - received);
+				received = input.count;
+				if(wait > 0) {
+					// Waiting for the bandwidth limit is not a stall
+					synchronized(lastProgress) {
+						lastProgress[0] = System.nanoTime() + wait;
+					}
+					sleep(TimeUnit.NANOSECONDS.toMillis(wait), source);
+				}
+			}
+		} catch(IOException exception) {
+			if(isStalled(lastProgress, stalled)) throw new IOException("Download of " + source + " stalled", exception);
+			throw exception;
+		} finally {
+			watchdog.cancel(false);
+			FileUtil.closeQuietly(input);
+		}
+
+		if(isStalled(lastProgress, stalled)) throw new IOException("Download of " + source + " stalled");
+		long expected = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		if(expected >= 0 && input.count != expected) {
+			throw new IOException("Download of " + source + " ended after " + input.count + " of " + expected + " bytes");
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a response body, before it is decompressed.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1) count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0) count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	private static boolean isStalled(long[] lastProgress, boolean[] stalled) {
+		synchronized(lastProgress) {
+			return stalled[0];
+		}
+	}
+
+	/**
+	 * Thrown when the server answers with an unexpected status.
+	 */
+	static final class HttpStatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpStatusException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+}
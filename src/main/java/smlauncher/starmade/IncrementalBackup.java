@@ -0,0 +1,350 @@
+package smlauncher.starmade;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up the game directory in generations that share their files. Every file is stored once, compressed and named
+ * by its SHA-1 checksum, and each generation lists the files it contains. A new generation only stores the files that
+ * changed since the last one; files with the same size and modification time as in the last generation are not even
+ * read again.
+ * <p>
+ * Backups are kept in a folder in the install directory, which full zip backups leave out:
+ * <pre>
+ * backup-StarMade-incremental/objects/xx/rest-of-checksum   compressed file contents
+ * backup-StarMade-incremental/generations/name.txt          files of one generation
+ * </pre>
+ * A generation lists the backed up folder in its first line, followed by one line per file:
+ * {@code size modified checksum path}, with the path relative to the install directory.
+ */
+public final class IncrementalBackup {
+
+	public static final String BACKUP_DIR = "backup-StarMade-incremental";
+	private static final String EXCLUDE_PREFIX = "backup-StarMade-";
+	private static final String OBJECT_DIR = "objects";
+	private static final String GENERATION_DIR = "generations";
+	private static final String EXTENSION = ".txt";
+	private static final String ROOT_PREFIX = "# root=";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int STORE_ATTEMPTS = 2;
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final long STALE_TEMP_AGE = 60 * 60 * 1000;
+
+	private final File installDir;
+	private final File objectDir;
+	private final File generationDir;
+
+	public IncrementalBackup(File installDir) {
+		this.installDir = installDir;
+		File backupDir = new File(installDir, BACKUP_DIR);
+		objectDir = new File(backupDir, OBJECT_DIR);
+		generationDir = new File(backupDir, GENERATION_DIR);
+	}
+
+	/**
+	 * Backs up a folder of the install directory as a new generation, and removes the oldest generations once more
+	 * than the given number are kept.
+	 *
+	 * @param root        the folder to back up, relative to the install directory, or empty for the whole directory
+	 * @param name        the name of the generation
+	 * @param filter      the files to back up, may be null
+	 * @param cb          called with every folder and file in order, may be null
+	 * @param generations the number of generations to keep, 0 to keep all
+	 * @throws IOException if a file could not be stored
+	 */
+	public void backUp(String root, String name, FileFilter filter, FolderZipper.ZipCallback cb, int generations) throws IOException {
+		List<String> existing = getGenerations();
+		Map<String, Record> previous = existing.isEmpty() ? new HashMap<>() : readGeneration(existing.get(existing.size() - 1));
+
+		List<File> files = new ArrayList<>();
+		File rootDir = root.isEmpty() ? installDir : new File(installDir, root);
+		collect(rootDir, filter, files);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		List<Record> records = new ArrayList<>();
+		int stored = 0;
+		try {
+			List<Future<Record>> futures = new ArrayList<>();
+			for(File file : files) {
+				if(file.isDirectory()) futures.add(null);
+				else futures.add(pool.submit(() -> store(file, previous.get(getRelativePath(file)))));
+			}
+			for(int i = 0; i < files.size(); i++) {
+				if(cb != null) cb.update(files.get(i));
+				if(futures.get(i) == null) continue;
+				Record record = futures.get(i).get();
+				if(record == null) continue;
+				if(record.stored) stored++;
+				records.add(record);
+			}
+		} catch(InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Backup was interrupted");
+		} catch(ExecutionException exception) {
+			throw new IOException("Could not back up " + rootDir, exception.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		// The generation is only written once all of its files are stored
+		writeGeneration(name, root, records);
+		System.out.println("[BACKUP] Generation " + name + ": " + records.size() + " files, " + stored + " changed");
+		prune(generations);
+	}
+
+	/**
+	 * Gets the names of all generations, oldest first.
+	 *
+	 * @return the generations
+	 */
+	public List<String> getGenerations() {
+		List<String> generations = new ArrayList<>();
+		File[] files = generationDir.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if(files == null) return generations;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+		for(File file : files) generations.add(file.getName().substring(0, file.getName().length() - EXTENSION.length()));
+		return generations;
+	}
+
+	/**
+	 * Restores the install directory to a generation. Files that match the generation are left alone. If the
+	 * generation only backed up a folder, files in that folder that are not part of the generation are removed.
+	 *
+	 * @param name the generation
+	 * @param cb   called with every restored file, may be null
+	 * @throws IOException if the generation does not exist or a file could not be restored
+	 */
+	public void restore(String name, FolderZipper.ZipCallback cb) throws IOException {
+		File generation = new File(generationDir, name + EXTENSION);
+		if(!generation.exists()) throw new IOException("Backup generation " + name + " does not exist");
+		String root = readRoot(generation);
+		Map<String, Record> records = readGeneration(name);
+		for(Record record : records.values()) {
+			File file = new File(installDir, record.path);
+			if(cb != null) cb.update(file);
+			if(file.isFile() && file.length() == record.size && Arrays.equals(FileUtil.createChecksum(file), record.checksum)) continue;
+			restore(record, file);
+		}
+
+		if(!root.isEmpty()) {
+			List<File> files = new ArrayList<>();
+			collect(new File(installDir, root), null, files);
+			for(File file : files) {
+				if(file.isFile() && !records.containsKey(getRelativePath(file))) file.delete();
+			}
+		}
+		System.out.println("[BACKUP] Restored generation " + name);
+	}
+
+	private Record store(File file, Record previous) throws IOException {
+		String path = getRelativePath(file);
+		if(previous != null && previous.size == file.length() && previous.modified == file.lastModified() && getObject(previous.checksum).exists()) {
+			return new Record(path, previous.size, previous.modified, previous.checksum, false);
+		}
+
+		// A file that changes while it is stored is hashed again once, then skipped like a file that cannot be opened
+		for(int attempt = 1; ; attempt++) {
+			long size = file.length();
+			long modified = file.lastModified();
+			byte[] checksum;
+			try {
+				checksum = FileUtil.createChecksum(file);
+			} catch(IOException exception) {
+				// Skipped like a file the zip backup cannot open
+				exception.printStackTrace();
+				return null;
+			}
+			File object = getObject(checksum);
+			if(object.exists()) return new Record(path, size, modified, checksum, false);
+
+			Files.createDirectories(object.getParentFile().toPath());
+			File tempFile = new File(object.getPath() + "." + Thread.currentThread().getId() + TEMP_EXTENSION);
+			MessageDigest digest = FileUtil.newSha1Digest();
+			try(InputStream in = new FileInputStream(file);
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE)) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+					digest.update(buffer, 0, n);
+				}
+			} catch(IOException exception) {
+				tempFile.delete();
+				throw exception;
+			}
+			// The file may have changed since it was hashed, so the stored copy is checked against its name
+			if(Arrays.equals(digest.digest(), checksum)) {
+				Files.move(tempFile.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				return new Record(path, size, modified, checksum, true);
+			}
+			tempFile.delete();
+			if(attempt >= STORE_ATTEMPTS) {
+				System.err.println("[BACKUP] Skipped " + path + ", it changed while backing it up");
+				return null;
+			}
+		}
+	}
+
+	private void restore(Record record, File file) throws IOException {
+		File object = getObject(record.checksum);
+		if(!object.exists()) throw new IOException("Backup of " + record.path + " is missing");
+		Files.createDirectories(file.getParentFile().toPath());
+		File tempFile = new File(file.getPath() + ".restore");
+		MessageDigest digest = FileUtil.newSha1Digest();
+		try(InputStream in = new GZIPInputStream(new FileInputStream(object), BUFFER_SIZE);
+			OutputStream out = new FileOutputStream(tempFile)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+				digest.update(buffer, 0, n);
+			}
+		}
+		if(!Arrays.equals(digest.digest(), record.checksum)) {
+			tempFile.delete();
+			throw new IOException("Backup of " + record.path + " is corrupt");
+		}
+		DataUtil.move(tempFile, file);
+		file.setLastModified(record.modified);
+	}
+
+	private void prune(int generations) throws IOException {
+		List<String> existing = getGenerations();
+		List<String> removed = existing.subList(0, generations > 0 ? Math.max(0, existing.size() - generations) : 0);
+		for(String name : removed) {
+			System.out.println("[BACKUP] Removing old generation " + name);
+			Files.deleteIfExists(new File(generationDir, name + EXTENSION).toPath());
+		}
+
+		// Objects are only removed with their last generation, temp files left by a crashed backup always are
+		Set<String> used = null;
+		if(!removed.isEmpty()) {
+			used = new HashSet<>();
+			for(String name : getGenerations()) {
+				for(Record record : readGeneration(name).values()) used.add(FileUtil.toHexString(record.checksum));
+			}
+		}
+		long staleBefore = System.currentTimeMillis() - STALE_TEMP_AGE;
+		File[] dirs = objectDir.listFiles(File::isDirectory);
+		if(dirs == null) return;
+		for(File dir : dirs) {
+			File[] objects = dir.listFiles();
+			if(objects == null) continue;
+			for(File object : objects) {
+				if(object.getName().endsWith(TEMP_EXTENSION)) {
+					if(object.lastModified() < staleBefore) object.delete();
+				} else if(used != null && !object.getName().contains(".") && !used.contains(dir.getName() + object.getName())) object.delete();
+			}
+		}
+	}
+
+	private void writeGeneration(String name, String root, List<Record> records) throws IOException {
+		Files.createDirectories(generationDir.toPath());
+		File file = new File(generationDir, name + EXTENSION);
+		File tempFile = new File(file.getPath() + ".tmp");
+		try(BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+			out.write(ROOT_PREFIX + root);
+			out.newLine();
+			for(Record record : records) {
+				out.write(record.size + " " + record.modified + " " + FileUtil.toHexString(record.checksum) + " " + record.path);
+				out.newLine();
+			}
+		}
+		DataUtil.move(tempFile, file);
+	}
+
+	private Map<String, Record> readGeneration(String name) throws IOException {
+		Map<String, Record> records = new LinkedHashMap<>();
+		File file = new File(generationDir, name + EXTENSION);
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.startsWith("#") || line.isEmpty()) continue;
+				String[] parts = line.split(" ", 4);
+				if(parts.length < 4) throw new IOException("Backup generation " + name + " is invalid: " + line);
+				try {
+					records.put(parts[3], new Record(parts[3], Long.parseLong(parts[0]), Long.parseLong(parts[1]), FileUtil.fromHexString(parts[2]), false));
+				} catch(IllegalArgumentException exception) {
+					throw new IOException("Backup generation " + name + " is invalid: " + line, exception);
+				}
+			}
+		}
+		return records;
+	}
+
+	private static String readRoot(File generation) throws IOException {
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(generation), StandardCharsets.UTF_8))) {
+			String line = in.readLine();
+			return line != null && line.startsWith(ROOT_PREFIX) ? line.substring(ROOT_PREFIX.length()) : "";
+		}
+	}
+
+	private static void collect(File dir, FileFilter filter, List<File> files) {
+		if(filter != null && !filter.accept(dir)) return;
+		files.add(dir);
+		String[] names = dir.list();
+		if(names == null) return;
+		Arrays.sort(names);
+		for(String name : names) {
+			if(name.startsWith(EXCLUDE_PREFIX)) continue;
+			File file = new File(dir, name);
+			if(file.isDirectory()) collect(file, filter, files);
+			else if(filter == null || filter.accept(file)) files.add(file);
+		}
+	}
+
+	private String getRelativePath(File file) {
+		return installDir.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+	}
+
+	private File getObject(byte[] checksum) {
+		String name = FileUtil.toHexString(checksum);
+		return new File(objectDir, name.substring(0, 2) + File.separator + name.substring(2));
+	}
+
+	private static final class Record {
+		private final String path;
+		private final long size;
+		private final long modified;
+		private final byte[] checksum;
+		private final boolean stored;
+
+		private Record(String path, long size, long modified, byte[] checksum, boolean stored) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.checksum = checksum;
+			this.stored = stored;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package smlauncher.starmade;
+
+import smlauncher.util.OperatingSystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps parsed checksum files in a binary form, so a checksum file that was read before is read in one piece instead
+ * of being parsed line by line again. The text checksum file stays what the servers send; its binary form is stored
+ * under the SHA-1 of the text.
+ * <p>
+ * Binary layout, big-endian, with the entries sorted by path:
+ * <pre>
+ * "SMMANIF1"              magic
+ * int count               number of entries
+ * long[count]             file sizes
+ * byte[count][20]         SHA-1 checksums
+ * int[count + 1]          offsets of the paths in the path table, the last one is its length
+ * byte[]                  path table, UTF-8
+ * </pre>
+ */
+final class ManifestCache {
+
+	private static final String CACHE_DIR = "manifests";
+	private static final String EXTENSION = ".bin";
+	private static final byte[] MAGIC = "SMMANIF1".getBytes(StandardCharsets.US_ASCII);
+	private static final int SHA1_LENGTH = 20;
+	private static final int MAX_FILES = 16;
+
+	private ManifestCache() {
+	}
+
+	/**
+	 * Parses a checksum file, using its binary form if it was parsed before.
+	 *
+	 * @param text the text checksum file
+	 * @return the parsed checksum file
+	 * @throws IOException if the checksum file is invalid
+	 */
+	static ChecksumFile parse(byte[] text) throws IOException {
+		File file = getFile(text);
+		if(file != null && file.exists()) {
+			try {
+				ChecksumFile checksums = read(file);
+				file.setLastModified(System.currentTimeMillis());
+				return checksums;
+			} catch(IOException exception) {
+				System.err.println("[UPDATER] Could not read cached checksum file, parsing it again: " + exception.getMessage());
+				delete(file);
+			}
+		}
+
+		ChecksumFile checksums = new ChecksumFile();
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(text), StandardCharsets.UTF_8))) {
+			checksums.parse(in);
+		}
+		if(file != null) {
+			try {
+				write(checksums, file);
+				evict(file.getParentFile());
+			} catch(IOException exception) {
+				System.err.println("[UPDATER] Could not cache checksum file: " + exception.getMessage());
+			}
+		}
+		return checksums;
+	}
+
+	/**
+	 * Writes the binary form of a checksum file.
+	 *
+	 * @param checksums the checksum file
+	 * @param file      the file to write to, replaced atomically
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(ChecksumFile checksums, File file) throws IOException {
+		List<ChecksumFileEntry> entries = new ArrayList<>(checksums.checksums);
+		entries.sort(Comparator.comparing(e -> e.relativePath));
+		byte[][] paths = new byte[entries.size()][];
+		for(int i = 0; i < paths.length; i++) paths[i] = entries.get(i).relativePath.getBytes(StandardCharsets.UTF_8);
+
+		Files.createDirectories(file.getParentFile().toPath());
+		File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			out.write(MAGIC);
+			out.writeInt(entries.size());
+			for(ChecksumFileEntry e : entries) out.writeLong(e.size);
+			for(ChecksumFileEntry e : entries) out.write(e.checksum);
+			int offset = 0;
+			for(byte[] path : paths) {
+				out.writeInt(offset);
+				offset += path.length;
+			}
+			out.writeInt(offset);
+			for(byte[] path : paths) out.write(path);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the binary form of a checksum file.
+	 *
+	 * @param file the file
+	 * @return the checksum file, with the version file last
+	 * @throws IOException if the file cannot be read or is corrupt
+	 */
+	static ChecksumFile read(File file) throws IOException {
+		// Read into the heap rather than mapped, since a mapped file cannot be deleted on Windows until it is collected
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE) throw new IOException("Cached checksum file " + file + " is corrupt");
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) throw new IOException("Cached checksum file " + file + " is truncated");
+			}
+			buffer.flip();
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new IOException("Not a cached checksum file: " + file);
+			int count = buffer.getInt();
+			long columns = (long) count * (Long.BYTES + SHA1_LENGTH + Integer.BYTES) + Integer.BYTES;
+			if(count < 0 || columns > buffer.remaining()) throw new IOException("Cached checksum file " + file + " is corrupt");
+
+			int sizes = buffer.position();
+			int hashes = sizes + count * Long.BYTES;
+			int offsets = hashes + count * SHA1_LENGTH;
+			int table = offsets + (count + 1) * Integer.BYTES;
+			if(table + buffer.getInt(offsets + count * Integer.BYTES) != buffer.limit()) throw new IOException("Cached checksum file " + file + " is corrupt");
+
+			ChecksumFile checksums = new ChecksumFile();
+			checksums.checksums.ensureCapacity(count);
+			byte[] path = new byte[256];
+			for(int i = 0; i < count; i++) {
+				int start = buffer.getInt(offsets + i * Integer.BYTES);
+				int length = buffer.getInt(offsets + (i + 1) * Integer.BYTES) - start;
+				if(start < 0 || length < 0) throw new IOException("Cached checksum file " + file + " is corrupt");
+				if(length > path.length) path = new byte[length];
+				buffer.get(table + start, path, 0, length);
+				byte[] checksum = new byte[SHA1_LENGTH];
+				buffer.get(hashes + i * SHA1_LENGTH, checksum);
+				long size = buffer.getLong(sizes + i * Long.BYTES);
+				checksums.checksums.add(new ChecksumFileEntry(size, checksum, new String(path, 0, length, StandardCharsets.UTF_8)));
+			}
+			checksums.moveVersionFileLast();
+			return checksums;
+		} catch(BufferUnderflowException | IndexOutOfBoundsException exception) {
+			throw new IOException("Cached checksum file " + file + " is corrupt", exception);
+		}
+	}
+
+	private static void evict(File dir) {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+		if(files == null || files.length <= MAX_FILES) return;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+		for(int i = MAX_FILES; i < files.length; i++) delete(files[i]);
+	}
+
+	private static void delete(File file) {
+		try {
+			Files.deleteIfExists(file.toPath());
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not delete cached checksum file " + file + ": " + exception.getMessage());
+		}
+	}
+
+	private static File getFile(byte[] text) {
+		try {
+			File dir = new File(OperatingSystem.getAppDir(), CACHE_DIR);
+			return new File(dir, FileUtil.toHexString(FileUtil.newSha1Digest().digest(text)) + EXTENSION);
+		} catch(IOException exception) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+package smlauncher.starmade;
+
+import smlauncher.StarMadeLauncher;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the files of a build across the download mirrors. Each mirror is probed for its latency before the update,
+ * throughput is measured from finished downloads, and mirrors that fail are left out for a while so their files go to
+ * the remaining mirrors.
+ */
+public class MirrorSelector {
+
+	private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+	private static final String PROBE_FILE = "/checksums";
+	private static final long MIN_THROUGHPUT_SAMPLE = 64 * 1024;
+	private static final double THROUGHPUT_WEIGHT = 0.3;
+	private static final double DEFAULT_THROUGHPUT = 512; // bytes/ms
+	private static final long FAILURE_BACKOFF = 10000;
+	private static final long MAX_FAILURE_BACKOFF = 60000;
+
+	private final List<Mirror> mirrors;
+
+	private MirrorSelector(List<Mirror> mirrors) {
+		this.mirrors = mirrors;
+	}
+
+	/**
+	 * Creates a selector that downloads everything from one build directory.
+	 *
+	 * @param buildUrl the URL of the build directory
+	 * @return the selector
+	 */
+	public static MirrorSelector single(String buildUrl) {
+		return new MirrorSelector(Collections.singletonList(new Mirror(buildUrl)));
+	}
+
+	/**
+	 * Creates a selector for a build on the main file server and all mirrors, and probes the mirrors. If the mirror
+	 * list cannot be retrieved, only the main file server is used.
+	 *
+	 * @param buildPath the path of the build relative to the file server
+	 * @return the selector
+	 */
+	public static MirrorSelector load(String buildPath) {
+		Set<String> baseUrls = new LinkedHashSet<>();
+		baseUrls.add(withTrailingSlash(GameUpdater.FILES_URL));
+		try {
+			for(String mirror : GameUpdater.getMirrorURLs()) baseUrls.add(withTrailingSlash(mirror));
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not retrieve mirrors, using main server only: " + exception.getMessage());
+		}
+
+		String path = buildPath;
+		while(path.startsWith("/")) path = path.substring(1);
+		while(path.endsWith("/")) path = path.substring(0, path.length() - 1);
+
+		List<Mirror> mirrors = new ArrayList<>();
+		for(String baseUrl : baseUrls) mirrors.add(new Mirror(baseUrl + path));
+		MirrorSelector selector = new MirrorSelector(mirrors);
+		if(mirrors.size() > 1) selector.probe();
+		return selector;
+	}
+
+	private static String withTrailingSlash(String url) {
+		return url.endsWith("/") ? url : url + "/";
+	}
+
+	/**
+	 * Asks every mirror for the headers of the checksum file at once, and records the time to the response as
+	 * latency. Mirrors that do not answer in time are marked as failed. Throughput is only learned from downloads.
+	 */
+	private void probe() {
+		List<CompletableFuture<?>> probes = new ArrayList<>();
+		for(Mirror mirror : mirrors) {
+			HttpRequest request = HttpRequest.newBuilder(URI.create(mirror.buildUrl + PROBE_FILE))
+					.timeout(PROBE_TIMEOUT)
+					.header("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION)
+					.method("HEAD", HttpRequest.BodyPublishers.noBody())
+					.build();
+			long start = System.nanoTime();
+			probes.add(HttpDownloader.getClient().sendAsync(request, HttpResponse.BodyHandlers.discarding())
+					.orTimeout(PROBE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+					.handle((response, exception) -> {
+						long end = System.nanoTime();
+						synchronized(this) {
+							if(exception != null || response.statusCode() != 200) mirror.markFailed(System.currentTimeMillis());
+							else mirror.latency = TimeUnit.NANOSECONDS.toMillis(end - start);
+						}
+						System.err.println("[UPDATER] Mirror " + mirror);
+						return null;
+					}));
+		}
+		CompletableFuture.allOf(probes.toArray(CompletableFuture<?>[]::new)).join();
+	}
+
+	/**
+	 * Gets the main file server, or the only build directory of a single selector.
+	 *
+	 * @return the first mirror
+	 */
+	public Mirror getPrimary() {
+		return mirrors.get(0);
+	}
+
+	/**
+	 * Picks the mirror expected to finish a file soonest, based on its latency, throughput and the downloads it is
+	 * already serving. Failed mirrors are only picked when no other mirror is left.
+	 *
+	 * @param size     the size of the file in bytes
+	 * @param excluded mirrors that already failed for this file
+	 * @return the mirror to download from, or null if every mirror was excluded
+	 */
+	public synchronized Mirror acquire(long size, Set<Mirror> excluded) {
+		long now = System.currentTimeMillis();
+		Mirror best = null;
+		double bestTime = Double.MAX_VALUE;
+		boolean bestHealthy = false;
+		for(Mirror mirror : mirrors) {
+			if(excluded.contains(mirror)) continue;
+			boolean healthy = mirror.disabledUntil <= now;
+			double time = mirror.estimateTime(size, getDefaultThroughput());
+			if(best == null || (healthy && !bestHealthy) || (healthy == bestHealthy && time < bestTime)) {
+				best = mirror;
+				bestTime = time;
+				bestHealthy = healthy;
+			}
+		}
+		if(best != null) best.active++;
+		return best;
+	}
+
+	/**
+	 * Records a finished download.
+	 *
+	 * @param mirror the mirror the file was downloaded from
+	 * @param size   the size of the file in bytes
+	 * @param millis the time the download took
+	 */
+	public synchronized void completed(Mirror mirror, long size, long millis) {
+		mirror.active--;
+		mirror.failures = 0;
+		if(size >= MIN_THROUGHPUT_SAMPLE && millis > 0) {
+			// Parallel downloads share the mirror's bandwidth
+			double sample = (double) size * (mirror.active + 1) / millis;
+			mirror.throughput = mirror.throughput <= 0 ? sample : THROUGHPUT_WEIGHT * sample + (1 - THROUGHPUT_WEIGHT) * mirror.throughput;
+		}
+	}
+
+	/**
+	 * Records a failed or stalled download, leaving the mirror out for a while.
+	 *
+	 * @param mirror the mirror the download failed on
+	 */
+	public synchronized void failed(Mirror mirror) {
+		mirror.active--;
+		mirror.markFailed(System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a download that was cancelled without the mirror being at fault.
+	 *
+	 * @param mirror the mirror the file was downloaded from
+	 */
+	public synchronized void cancelled(Mirror mirror) {
+		mirror.active--;
+	}
+
+	private double getDefaultThroughput() {
+		double sum = 0;
+		int count = 0;
+		for(Mirror mirror : mirrors) {
+			if(mirror.throughput > 0) {
+				sum += mirror.throughput;
+				count++;
+			}
+		}
+		return count == 0 ? DEFAULT_THROUGHPUT : sum / count;
+	}
+
+	/**
+	 * A build directory on one of the file servers.
+	 */
+	public static final class Mirror {
+		public final String buildUrl;
+		private long latency;
+		private double throughput; // bytes/ms, 0 if unknown
+		private int active;
+		private int failures;
+		private long disabledUntil;
+
+		private Mirror(String buildUrl) {
+			this.buildUrl = buildUrl;
+		}
+
+		private double estimateTime(long size, double defaultThroughput) {
+			double rate = throughput > 0 ? throughput : defaultThroughput;
+			return latency + (active + 1) * size / rate;
+		}
+
+		private void markFailed(long now) {
+			failures++;
+			disabledUntil = now + Math.min(FAILURE_BACKOFF * failures, MAX_FAILURE_BACKOFF);
+		}
+
+		@Override
+		public String toString() {
+			return buildUrl + " [latency=" + latency + "ms, throughput=" + (long) throughput + "KB/s, failures=" + failures + "]";
+		}
+	}
+
+}
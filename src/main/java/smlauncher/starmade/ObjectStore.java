@@ -0,0 +1,136 @@
+package smlauncher.starmade;
+
+import smlauncher.util.OperatingSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Keeps one copy of every game file, named by its SHA-1 checksum, shared by all install directories. Files are
+ * placed into installs as hard links where the file system allows it, and copied otherwise, so installs of different
+ * branches only need to download the files they do not share.
+ * <p>
+ * Stored files get a fixed modification time. A file whose time changed was modified through one of its links and is
+ * checked against its checksum before it is used again.
+ */
+public final class ObjectStore {
+
+	private static final String STORE_DIR = "objects";
+	private static final long OBJECT_TIME = 946684800000L; // 2000-01-01
+
+	private final File root;
+
+	public ObjectStore(File root) {
+		this.root = root;
+	}
+
+	/**
+	 * Opens the object store in the launcher's app directory.
+	 *
+	 * @return the object store
+	 * @throws IOException if the app directory cannot be created
+	 */
+	public static ObjectStore open() throws IOException {
+		return new ObjectStore(new File(OperatingSystem.getAppDir(), STORE_DIR));
+	}
+
+	/**
+	 * Places a stored file at the given location, replacing any file there.
+	 *
+	 * @param checksum    the SHA-1 digest of the file
+	 * @param size        the size of the file
+	 * @param destination where to place the file
+	 * @return whether the file was stored and could be placed
+	 */
+	public boolean materialize(byte[] checksum, long size, File destination) {
+		File object = getObject(checksum);
+		try {
+			if(!isIntact(object, checksum, size)) return false;
+			Files.deleteIfExists(destination.toPath());
+			link(object, destination);
+			return true;
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not use stored copy of " + destination.getName() + ": " + exception.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a verified file to the store, unless a file with the same checksum is already stored.
+	 *
+	 * @param file     the file
+	 * @param checksum the SHA-1 digest of the file
+	 */
+	public void add(File file, byte[] checksum) {
+		File object = getObject(checksum);
+		if(object.exists()) return;
+		File tempFile = new File(object.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			Files.createDirectories(object.getParentFile().toPath());
+			Files.deleteIfExists(tempFile.toPath());
+			link(file, tempFile);
+			tempFile.setLastModified(OBJECT_TIME);
+			Files.move(tempFile.toPath(), object.toPath());
+		} catch(FileAlreadyExistsException ignored) {
+			// Stored by another install at the same time
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not store " + file.getName() + ": " + exception.getMessage());
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Removes the stored files that are not in the given set. Installs keep their hard links to removed files.
+	 *
+	 * @param used the hex checksums of the files to keep
+	 */
+	public void removeUnused(Set<String> used) {
+		File[] dirs = root.listFiles(File::isDirectory);
+		if(dirs == null) return;
+		int removed = 0;
+		for(File dir : dirs) {
+			File[] objects = dir.listFiles();
+			if(objects == null) continue;
+			for(File object : objects) {
+				// Skip files that are still being added
+				if(object.getName().contains(".")) continue;
+				if(!used.contains(dir.getName() + object.getName()) && object.delete()) removed++;
+			}
+		}
+		if(removed > 0) System.err.println("[UPDATER] Removed " + removed + " unused stored files");
+	}
+
+	private File getObject(byte[] checksum) {
+		String name = FileUtil.toHexString(checksum);
+		return new File(root, name.substring(0, 2) + File.separator + name.substring(2));
+	}
+
+	private static boolean isIntact(File object, byte[] checksum, long size) throws IOException {
+		if(!object.isFile() || object.length() != size) return false;
+		if(object.lastModified() == OBJECT_TIME) return true;
+		if(!Arrays.equals(FileUtil.createChecksum(object), checksum)) {
+			System.err.println("[UPDATER] Stored file " + object.getName() + " was modified, removing it");
+			Files.deleteIfExists(object.toPath());
+			return false;
+		}
+		object.setLastModified(OBJECT_TIME);
+		return true;
+	}
+
+	private static void link(File source, File destination) throws IOException {
+		try {
+			Files.createLink(destination.toPath(), source.toPath());
+		} catch(UnsupportedOperationException | IOException exception) {
+			if(exception instanceof FileAlreadyExistsException) throw (FileAlreadyExistsException) exception;
+			// Different file systems, or no hard link support
+			Files.copy(source.toPath(), destination.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+
+}
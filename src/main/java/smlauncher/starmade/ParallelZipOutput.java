@@ -0,0 +1,378 @@
+package smlauncher.starmade;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive, compressing its files on all cores. Files are split into blocks that are deflated
+ * independently, each primed with the end of the block before it, so large files are compressed in parallel too. The
+ * blocks are written to the archive in the order the files were added.
+ * <p>
+ * Entries use data descriptors, as the checksum and sizes are only known once the last block is written, and Zip64
+ * records are added for archives and files larger than 4GB or with more than 65535 entries.
+ */
+final class ParallelZipOutput implements Closeable {
+
+	private static final int BLOCK_SIZE = 1024 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	private static final long ZIP64_ENTRY_SIZE = 0xF0000000L; // Leaves room for incompressible data to grow
+	private static final int FLAGS = 0x0808; // Data descriptor, UTF-8 names
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+	private final OutputStream out;
+	private final ExecutorService pool;
+	private final int window;
+	private final FolderZipper.ZipCallback cb;
+	private final Deque<Item> pending = new ArrayDeque<>();
+	private final List<Entry> entries = new ArrayList<>();
+	private final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+	private final CRC32 crc = new CRC32();
+	private long position;
+
+	ParallelZipOutput(File destination, FolderZipper.ZipCallback cb) throws IOException {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		this.out = new BufferedOutputStream(new FileOutputStream(destination), 64 * 1024);
+		this.pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Backup Compressor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Enough blocks in flight to keep every thread busy while the oldest one is written
+		this.window = threads * 2;
+		this.cb = cb;
+	}
+
+	/**
+	 * Reports a folder to the callback once all files added before it are written.
+	 *
+	 * @param folder the folder
+	 */
+	void addFolder(File folder) throws IOException {
+		pending.add(new Item(null, folder, 0, true, null));
+		drain(window);
+	}
+
+	/**
+	 * Adds a file, which is compressed in the background. A file that cannot be opened is left out.
+	 *
+	 * @param name the name of the entry in the archive
+	 * @param file the file
+	 * @throws IOException if writing the archive fails, or a file that was partly written can no longer be read
+	 */
+	void addFile(String name, File file) throws IOException {
+		long size = file.length();
+		Entry entry = new Entry(name, file, size, file.lastModified());
+		long blocks = Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		for(long i = 0; i < blocks; i++) {
+			long offset = i * BLOCK_SIZE;
+			int length = (int) Math.min(BLOCK_SIZE, size - offset);
+			boolean last = i == blocks - 1;
+			pending.add(new Item(entry, file, i, last, pool.submit(() -> compress(file, offset, length, last))));
+			drain(window);
+		}
+	}
+
+	/**
+	 * Writes the remaining files and the central directory.
+	 *
+	 * @throws IOException if writing the archive fails
+	 */
+	void finish() throws IOException {
+		drain(0);
+		long start = position;
+		for(Entry entry : entries) writeCentralHeader(entry);
+		writeEnd(start, position - start);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		pool.shutdownNow();
+		out.close();
+	}
+
+	private void drain(int limit) throws IOException {
+		while(pending.size() > limit) write(pending.poll());
+	}
+
+	private void write(Item item) throws IOException {
+		if(item.entry == null) {
+			if(cb != null) cb.update(item.file);
+			return;
+		}
+		Entry entry = item.entry;
+		if(item.index == 0 && cb != null) cb.update(entry.file);
+		if(entry.skipped) return;
+
+		Block block;
+		try {
+			block = item.future.get();
+		} catch(InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Archiving was interrupted");
+		} catch(ExecutionException exception) {
+			if(item.index == 0) {
+				// Nothing of the file was written yet, so it can be left out
+				exception.getCause().printStackTrace();
+				entry.skipped = true;
+				return;
+			}
+			throw new IOException("Could not read " + entry.file + " while archiving it", exception.getCause());
+		}
+
+		if(item.index == 0) {
+			entry.offset = position;
+			crc.reset();
+			writeLocalHeader(entry);
+		}
+		crc.update(block.data, 0, block.data.length);
+		writeBytes(block.compressed, block.compressedLength);
+		entry.compressedSize += block.compressedLength;
+		if(item.last) {
+			entry.crc = crc.getValue();
+			writeDataDescriptor(entry);
+			entries.add(entry);
+		}
+	}
+
+	private static Block compress(File file, long offset, int length, boolean last) throws IOException {
+		byte[] data = new byte[length];
+		byte[] dictionary = null;
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if(offset > 0) {
+				dictionary = new byte[(int) Math.min(DICTIONARY_SIZE, offset)];
+				read(channel, dictionary, offset - dictionary.length);
+			}
+			read(channel, data, offset);
+		}
+
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		if(dictionary != null) deflater.setDictionary(dictionary);
+		deflater.setInput(data);
+		if(last) deflater.finish();
+		// Blocks end on a byte boundary, so their output can simply be concatenated
+		int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+		byte[] compressed = new byte[length + (length >> 8) + 64];
+		int count = 0;
+		while(true) {
+			int space = compressed.length - count;
+			int n = deflater.deflate(compressed, count, space, flush);
+			count += n;
+			// A flush is complete once it leaves space in the output
+			if(last ? deflater.finished() : n < space) break;
+			if(count == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+		}
+		return new Block(data, compressed, count);
+	}
+
+	private static void read(FileChannel channel, byte[] bytes, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException("File became shorter while archiving it");
+		}
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException {
+		entry.zip64 = entry.size >= ZIP64_ENTRY_SIZE;
+		byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+		header.clear();
+		header.putInt(0x04034b50);
+		header.putShort((short) (entry.zip64 ? 45 : 20));
+		header.putShort((short) FLAGS);
+		header.putShort((short) Deflater.DEFLATED);
+		header.putInt(entry.dosTime);
+		header.putInt(0); // Checksum and sizes follow in the data descriptor
+		header.putInt(entry.zip64 ? (int) ZIP64_LIMIT : 0);
+		header.putInt(entry.zip64 ? (int) ZIP64_LIMIT : 0);
+		header.putShort((short) name.length);
+		header.putShort((short) (entry.zip64 ? 20 : 0));
+		writeHeader();
+		writeBytes(name, name.length);
+		if(entry.zip64) {
+			header.clear();
+			header.putShort((short) 0x0001);
+			header.putShort((short) 16);
+			header.putLong(0);
+			header.putLong(0);
+			writeHeader();
+		}
+	}
+
+	private void writeDataDescriptor(Entry entry) throws IOException {
+		header.clear();
+		header.putInt(0x08074b50);
+		header.putInt((int) entry.crc);
+		if(entry.zip64) {
+			header.putLong(entry.compressedSize);
+			header.putLong(entry.size);
+		} else {
+			header.putInt((int) entry.compressedSize);
+			header.putInt((int) entry.size);
+		}
+		writeHeader();
+	}
+
+	private void writeCentralHeader(Entry entry) throws IOException {
+		byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+		boolean largeSize = entry.size >= ZIP64_LIMIT;
+		boolean largeCompressed = entry.compressedSize >= ZIP64_LIMIT;
+		boolean largeOffset = entry.offset >= ZIP64_LIMIT;
+		int extra = (largeSize ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+		short version = (short) (entry.zip64 || extra > 0 ? 45 : 20);
+
+		header.clear();
+		header.putInt(0x02014b50);
+		header.putShort(version);
+		header.putShort(version);
+		header.putShort((short) FLAGS);
+		header.putShort((short) Deflater.DEFLATED);
+		header.putInt(entry.dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt(largeCompressed ? (int) ZIP64_LIMIT : (int) entry.compressedSize);
+		header.putInt(largeSize ? (int) ZIP64_LIMIT : (int) entry.size);
+		header.putShort((short) name.length);
+		header.putShort((short) (extra > 0 ? extra + 4 : 0));
+		header.putShort((short) 0); // Comment
+		header.putShort((short) 0); // Disk
+		header.putShort((short) 0); // Internal attributes
+		header.putInt(0); // External attributes
+		header.putInt(largeOffset ? (int) ZIP64_LIMIT : (int) entry.offset);
+		writeHeader();
+		writeBytes(name, name.length);
+		if(extra > 0) {
+			header.clear();
+			header.putShort((short) 0x0001);
+			header.putShort((short) extra);
+			if(largeSize) header.putLong(entry.size);
+			if(largeCompressed) header.putLong(entry.compressedSize);
+			if(largeOffset) header.putLong(entry.offset);
+			writeHeader();
+		}
+	}
+
+	private void writeEnd(long start, long size) throws IOException {
+		int count = entries.size();
+		if(count >= 0xFFFF || start >= ZIP64_LIMIT || size >= ZIP64_LIMIT) {
+			long end = position;
+			header.clear();
+			header.putInt(0x06064b50);
+			header.putLong(44);
+			header.putShort((short) 45);
+			header.putShort((short) 45);
+			header.putInt(0);
+			header.putInt(0);
+			header.putLong(count);
+			header.putLong(count);
+			header.putLong(size);
+			header.putLong(start);
+			writeHeader();
+
+			header.clear();
+			header.putInt(0x07064b50);
+			header.putInt(0);
+			header.putLong(end);
+			header.putInt(1);
+			writeHeader();
+		}
+		header.clear();
+		header.putInt(0x06054b50);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) Math.min(count, 0xFFFF));
+		header.putShort((short) Math.min(count, 0xFFFF));
+		header.putInt((int) Math.min(size, ZIP64_LIMIT));
+		header.putInt((int) Math.min(start, ZIP64_LIMIT));
+		header.putShort((short) 0); // Comment
+		writeHeader();
+	}
+
+	private void writeHeader() throws IOException {
+		writeBytes(header.array(), header.position());
+	}
+
+	private void writeBytes(byte[] bytes, int length) throws IOException {
+		out.write(bytes, 0, length);
+		position += length;
+	}
+
+	private static int toDosTime(long time) {
+		LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		if(date.getYear() < 1980) return (1 << 21) | (1 << 16);
+		return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16 | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+	}
+
+	private static final class Entry {
+		private final String name;
+		private final File file;
+		private final long size;
+		private final int dosTime;
+		private long offset;
+		private long compressedSize;
+		private long crc;
+		private boolean zip64;
+		private boolean skipped;
+
+		private Entry(String name, File file, long size, long lastModified) {
+			this.name = name;
+			this.file = file;
+			this.size = size;
+			this.dosTime = toDosTime(lastModified);
+		}
+	}
+
+	private static final class Item {
+		private final Entry entry;
+		private final File file;
+		private final long index;
+		private final boolean last;
+		private final Future<Block> future;
+
+		private Item(Entry entry, File file, long index, boolean last, Future<Block> future) {
+			this.entry = entry;
+			this.file = file;
+			this.index = index;
+			this.last = last;
+			this.future = future;
+		}
+	}
+
+	private static final class Block {
+		private final byte[] data;
+		private final byte[] compressed;
+		private final int compressedLength;
+
+		private Block(byte[] data, byte[] compressed, int compressedLength) {
+			this.data = data;
+			this.compressed = compressed;
+			this.compressedLength = compressedLength;
+		}
+	}
+
+}
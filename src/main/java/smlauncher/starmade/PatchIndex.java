@@ -0,0 +1,78 @@
+package smlauncher.starmade;
+
+import smlauncher.util.HttpCache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The files of a build that can be patched from an older build. A build that publishes patches lists them in
+ * {@code patches/<old build>/index}, one path per line as in the checksum file, so files without a patch are
+ * downloaded without asking the mirrors for one first.
+ */
+final class PatchIndex {
+
+	static final String PATCH_DIR = "/patches/";
+	static final String INDEX_FILENAME = "index";
+
+	final String installedBuild;
+	private final Set<String> paths;
+	private final AtomicBoolean enabled = new AtomicBoolean(true);
+
+	private PatchIndex(String installedBuild, Set<String> paths) {
+		this.installedBuild = installedBuild;
+		this.paths = paths;
+	}
+
+	/**
+	 * Gets the patches from the installed build, asking the main file server once.
+	 *
+	 * @param mirrors        the mirrors of the new build
+	 * @param installedBuild the installed build, may be null
+	 * @return the patch index, or null if there are no patches from the installed build
+	 */
+	static PatchIndex load(MirrorSelector mirrors, String installedBuild) {
+		if(installedBuild == null) return null;
+		Set<String> paths = new HashSet<>();
+		try(BufferedReader in = HttpCache.getReader(mirrors.getPrimary().buildUrl + PATCH_DIR + installedBuild + "/" + INDEX_FILENAME)) {
+			String line;
+			while((line = in.readLine()) != null) {
+				line = line.trim();
+				if(!line.isEmpty()) paths.add(line.startsWith(".") ? line.substring(1) : line);
+			}
+		} catch(IOException exception) {
+			// Most builds publish no patches
+			return null;
+		}
+		return paths.isEmpty() ? null : new PatchIndex(installedBuild, paths);
+	}
+
+	/**
+	 * Checks if a file can be patched.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 * @return whether a patch for the file is listed and patching was not turned off
+	 */
+	boolean has(String relativePath) {
+		return enabled.get() && paths.contains(relativePath);
+	}
+
+	/**
+	 * Turns patching off for the rest of the update, once a mirror did not have a listed patch.
+	 */
+	void disable() {
+		if(enabled.getAndSet(false)) System.err.println("[UPDATER] Patches are missing on the mirrors, downloading full files");
+	}
+
+	int size() {
+		return paths.size();
+	}
+
+	String getUrl(String buildUrl, String relativePath) {
+		return buildUrl + PATCH_DIR + installedBuild + relativePath + FilePatch.EXTENSION;
+	}
+
+}
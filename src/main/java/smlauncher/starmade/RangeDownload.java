@@ -0,0 +1,440 @@
+package smlauncher.starmade;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads one large file as several byte ranges at once. The ranges are written straight to their place in a
+ * preallocated file, and a range that fails is retried on its own from where it stopped, up to
+ * {@link #RANGE_ATTEMPTS} times. If the server does not support ranges, the whole file is downloaded over the first
+ * request instead.
+ * <p>
+ * The unfinished ranges are kept in a state file next to the download, so an interrupted download continues where
+ * it stopped, even after the launcher was restarted.
+ * <p>
+ * The checksum is computed while the download runs: whenever a range finishes, the part of the file that is
+ * complete from the start is hashed while it is still cached in memory.
+ */
+class RangeDownload {
+
+	static final long CHUNK_SIZE = 8 * 1024 * 1024;
+	private static final int PARALLEL_CHUNKS = 4;
+	// Fewer than for a whole file, so a failing mirror is left sooner while the finished ranges are kept
+	private static final int RANGE_ATTEMPTS = 3;
+	private static final String STATE_EXTENSION = ".ranges";
+	private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+	private final URI source;
+	private final long size;
+	private final DownloadCallback cb;
+	private final Queue<Chunk> pending = new ArrayDeque<>();
+	private final Set<Chunk> unfinished = new LinkedHashSet<>();
+	private final List<RangeSubscriber> running = new ArrayList<>();
+	private FileChannel channel;
+	private long downloaded;
+	private volatile boolean aborted;
+	private volatile boolean startOver;
+	private boolean finished;
+	private final Object hashLock = new Object();
+	private final MessageDigest digest = FileUtil.newSha1Digest();
+	private final ByteBuffer hashBuffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+	private long hashedUpTo;
+
+	RangeDownload(URI source, long size, DownloadCallback cb) {
+		this.source = source;
+		this.size = size;
+		this.cb = cb;
+	}
+
+	/**
+	 * Downloads the file, blocking until all ranges are written.
+	 *
+	 * @param destination the file to write to, continued if a state file exists
+	 * @return the SHA-1 digest of the downloaded file
+	 * @throws IOException if a range fails too often or the file cannot be written
+	 */
+	byte[] download(File destination) throws IOException {
+		File stateFile = getStateFile(destination);
+		if(!loadState(destination, stateFile)) {
+			for(long start = 0; start < size; start += CHUNK_SIZE) {
+				pending.add(new Chunk(start, Math.min(start + CHUNK_SIZE, size) - 1));
+			}
+		}
+		unfinished.addAll(pending);
+		if(cb != null && downloaded > 0) cb.downloaded(downloaded, downloaded);
+
+		// The state is saved regularly, as the launcher may be closed at any time
+		ScheduledFuture<?> stateSaver = HttpDownloader.scheduleWatchdog(() -> saveState(stateFile));
+		try {
+			try(RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+				file.setLength(size);
+				channel = file.getChannel();
+
+				if(!pending.isEmpty()) {
+					// The first range tells if the server supports ranges, only then are the others started
+					Chunk first = nextChunk();
+					CompletableFuture<Boolean> rangesSupported = new CompletableFuture<>();
+					List<CompletableFuture<Void>> lanes = new ArrayList<>();
+					lanes.add(download(first, 1, rangesSupported).thenCompose(v -> runLane()));
+					CompletableFuture<Void> all = rangesSupported.thenCompose(supported -> {
+						if(supported) {
+							for(int i = 1; i < PARALLEL_CHUNKS; i++) lanes.add(runLane());
+						}
+						return CompletableFuture.allOf(lanes.toArray(CompletableFuture<?>[]::new));
+					});
+					await(all);
+				}
+				hashWritten();
+			}
+		} catch(IOException exception) {
+			if(startOver) throw new RangesNotSupportedException("Server stopped sending ranges of " + source, exception);
+			throw exception;
+		} finally {
+			stateSaver.cancel(false);
+			synchronized(this) {
+				finished = true;
+			}
+			if(startOver) {
+				// The data of an earlier attempt cannot be continued without range support
+				Files.deleteIfExists(destination.toPath());
+				Files.deleteIfExists(stateFile.toPath());
+				synchronized(this) {
+					if(cb != null) cb.downloaded(0, -downloaded);
+				}
+			} else {
+				writeState(stateFile);
+			}
+		}
+		Files.deleteIfExists(stateFile.toPath());
+		if(cb != null) cb.doneDownloading();
+		return digest.digest();
+	}
+
+	/**
+	 * Hashes the part of the file that is written without gaps from the start and was not hashed yet.
+	 */
+	private void hashWritten() throws IOException {
+		synchronized(hashLock) {
+			long limit = getWrittenPrefix();
+			while(hashedUpTo < limit) {
+				hashBuffer.clear();
+				hashBuffer.limit((int) Math.min(hashBuffer.capacity(), limit - hashedUpTo));
+				int n = channel.read(hashBuffer, hashedUpTo);
+				if(n < 0) throw new IOException("Unexpected end of " + source + " at " + hashedUpTo);
+				hashBuffer.flip();
+				digest.update(hashBuffer);
+				hashedUpTo += n;
+			}
+		}
+	}
+
+	/**
+	 * Gets the length of the part of the file that is written without gaps from the start. The unfinished ranges do
+	 * not overlap, so everything before the lowest position written to is complete.
+	 */
+	private synchronized long getWrittenPrefix() {
+		long prefix = size;
+		for(Chunk chunk : unfinished) prefix = Math.min(prefix, chunk.position);
+		return prefix;
+	}
+
+	/**
+	 * Gets the file that keeps the unfinished ranges of a download.
+	 *
+	 * @param destination the file being downloaded
+	 * @return the state file
+	 */
+	static File getStateFile(File destination) {
+		return new File(destination.getPath() + STATE_EXTENSION);
+	}
+
+	/**
+	 * Reads the unfinished ranges of an earlier attempt, one "position end" pair per line.
+	 *
+	 * @return true if the download can continue from the state file
+	 */
+	private boolean loadState(File destination, File stateFile) {
+		if(!stateFile.exists() || !destination.exists() || destination.length() != size) return false;
+		try {
+			long remaining = 0;
+			for(String line : Files.readAllLines(stateFile.toPath(), StandardCharsets.UTF_8)) {
+				if(line.isBlank()) continue;
+				String[] parts = line.trim().split(" ");
+				Chunk chunk = new Chunk(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+				if(chunk.position < 0 || chunk.end >= size || chunk.position > chunk.end + 1) throw new IOException("Invalid range " + line);
+				if(chunk.position <= chunk.end) {
+					pending.add(chunk);
+					remaining += chunk.end + 1 - chunk.position;
+				}
+			}
+			downloaded = size - remaining;
+			System.err.println("[UPDATER] Resuming download of " + source + " with " + remaining + " of " + size + " bytes left");
+			return true;
+		} catch(IOException | RuntimeException exception) {
+			System.err.println("[UPDATER] Could not read download state of " + source + ", starting over: " + exception.getMessage());
+			pending.clear();
+			downloaded = 0;
+			return false;
+		}
+	}
+
+	private synchronized void saveState(File stateFile) {
+		if(!finished) writeState(stateFile);
+	}
+
+	private synchronized void writeState(File stateFile) {
+		if(unfinished.isEmpty()) return;
+		StringBuilder state = new StringBuilder();
+		for(Chunk chunk : unfinished) state.append(chunk.position).append(' ').append(chunk.end).append('\n');
+		try {
+			Files.write(stateFile.toPath(), state.toString().getBytes(StandardCharsets.UTF_8));
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not save download state of " + source + ": " + exception.getMessage());
+		}
+	}
+
+	private void await(CompletableFuture<?> future) throws IOException {
+		try {
+			future.get();
+		} catch(InterruptedException e) {
+			abort();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Download of " + source + " was interrupted");
+		} catch(ExecutionException e) {
+			abort();
+			Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+			if(cause instanceof IOException) throw (IOException) cause;
+			throw new IOException("Download of " + source + " failed", cause);
+		}
+	}
+
+	private void abort() {
+		aborted = true;
+		synchronized(this) {
+			for(RangeSubscriber subscriber : running) subscriber.cancel(new IOException("Download aborted"));
+		}
+	}
+
+	private synchronized Chunk nextChunk() {
+		return aborted ? null : pending.poll();
+	}
+
+	private CompletableFuture<Void> runLane() {
+		Chunk chunk = nextChunk();
+		if(chunk == null) return CompletableFuture.completedFuture(null);
+		return download(chunk, 1, null).thenCompose(v -> runLane());
+	}
+
+	private CompletableFuture<Void> download(Chunk chunk, int attempt, CompletableFuture<Boolean> rangesSupported) {
+		HttpRequest request = HttpDownloader.newRequest(source)
+				.header("Range", "bytes=" + chunk.position + "-" + chunk.end)
+				.build();
+		RangeSubscriber subscriber = new RangeSubscriber(chunk);
+		HttpResponse.BodyHandler<Void> handler = info -> {
+			long[] range = parseContentRange(info.headers().firstValue("Content-Range").orElse(null));
+			if(info.statusCode() == 206 && range != null && range[0] == chunk.position && range[1] == chunk.end && range[2] == size) {
+				if(rangesSupported != null) rangesSupported.complete(true);
+			} else if(info.statusCode() == 200 && rangesSupported != null && chunk.position == 0) {
+				// Ranges are not supported, this response is the whole file
+				chunk.end = size - 1;
+				synchronized(this) {
+					unfinished.removeAll(pending);
+					pending.clear();
+				}
+				rangesSupported.complete(false);
+			} else {
+				subscriber.cancel(new IOException("Server returned HTTP " + info.statusCode() + " for range " + chunk.position + "-" + chunk.end + " of " + source));
+				if(info.statusCode() == 200) {
+					// Retrying the range would get the whole file again, so the download starts over in one piece
+					startOver = true;
+					abort();
+				}
+			}
+			return subscriber;
+		};
+		synchronized(this) {
+			running.add(subscriber);
+		}
+
+		return HttpDownloader.getClient().sendAsync(request, handler)
+				.handle((response, exception) -> {
+					subscriber.stopWatchdog();
+					synchronized(this) {
+						running.remove(subscriber);
+					}
+					if(exception == null) {
+						synchronized(this) {
+							unfinished.remove(chunk);
+						}
+						try {
+							hashWritten();
+						} catch(IOException hashException) {
+							// Hashed again at the end, where the error is reported
+						}
+						return CompletableFuture.<Void>completedFuture(null);
+					}
+					if(aborted || attempt >= RANGE_ATTEMPTS) {
+						if(rangesSupported != null) rangesSupported.complete(false);
+						return CompletableFuture.<Void>failedFuture(exception);
+					}
+					long backoff = HttpDownloader.getBackoff(attempt);
+					System.err.println("[UPDATER] Range " + chunk.position + "-" + chunk.end + " of " + source + " failed, resuming in " + backoff + "ms: " + exception.getMessage());
+					Executor delayed = CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS);
+					// An abort during the backoff cancels the retry, as the file may already be closed
+					return CompletableFuture.supplyAsync(() -> aborted ? CompletableFuture.<Void>failedFuture(exception) : download(chunk, attempt + 1, rangesSupported), delayed).thenCompose(future -> future);
+				})
+				.thenCompose(future -> future);
+	}
+
+	private void progress(long diff) {
+		synchronized(this) {
+			downloaded += diff;
+			if(cb != null) cb.downloaded(downloaded, diff);
+		}
+	}
+
+	/**
+	 * Parses a Content-Range header of the form "bytes start-end/total".
+	 *
+	 * @return the start, end and total, or null if the header is missing or invalid
+	 */
+	static long[] parseContentRange(String header) {
+		if(header == null || !header.startsWith("bytes ")) return null;
+		int dash = header.indexOf('-');
+		int slash = header.indexOf('/');
+		if(dash < 0 || slash < dash) return null;
+		try {
+			long start = Long.parseLong(header.substring(6, dash).trim());
+			long end = Long.parseLong(header.substring(dash + 1, slash).trim());
+			String total = header.substring(slash + 1).trim();
+			return new long[] {start, end, "*".equals(total) ? -1 : Long.parseLong(total)};
+		} catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Thrown when the server stopped answering range requests, so the file has to be downloaded in one piece.
+	 */
+	static final class RangesNotSupportedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		RangesNotSupportedException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	private static final class Chunk {
+		volatile long position;
+		long end;
+
+		Chunk(long position, long end) {
+			this.position = position;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Writes the body of a range response to its place in the file, and cancels the response if no data arrives
+	 * for a while.
+	 */
+	private final class RangeSubscriber implements HttpResponse.BodySubscriber<Void> {
+		private final Chunk chunk;
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+		private final ScheduledFuture<?> watchdog;
+		private volatile Flow.Subscription subscription;
+		private volatile long lastProgress = System.nanoTime();
+
+		RangeSubscriber(Chunk chunk) {
+			this.chunk = chunk;
+			watchdog = HttpDownloader.scheduleWatchdog(() -> {
+				if(System.nanoTime() - lastProgress >= HttpDownloader.STALL_TIMEOUT) {
+					cancel(new IOException("Download of " + source + " stalled"));
+				}
+			});
+		}
+
+		void cancel(IOException exception) {
+			if(result.completeExceptionally(exception)) {
+				Flow.Subscription s = subscription;
+				if(s != null) s.cancel();
+			}
+		}
+
+		void stopWatchdog() {
+			watchdog.cancel(false);
+		}
+
+		@Override
+		public CompletableFuture<Void> getBody() {
+			return result;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if(result.isDone()) subscription.cancel();
+			else subscription.request(1);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			if(result.isDone()) return;
+			long received = 0;
+			try {
+				for(ByteBuffer buffer : items) {
+					int n = buffer.remaining();
+					if(chunk.position + n > chunk.end + 1) throw new IOException("Server sent more data than requested for " + source);
+					while(buffer.hasRemaining()) {
+						chunk.position += channel.write(buffer, chunk.position);
+					}
+					progress(n);
+					received += n;
+				}
+			} catch(IOException exception) {
+				cancel(exception);
+				return;
+			}
+			// Data is requested again once the bandwidth limit allows it, without blocking the client's threads
+			long wait = BandwidthLimiter.reserve(received);
+			lastProgress = System.nanoTime() + wait;
+			if(wait > 0) CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(() -> subscription.request(1));
+			else subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			if(chunk.position == chunk.end + 1) result.complete(null);
+			else result.completeExceptionally(new IOException("Range of " + source + " ended at " + chunk.position + " instead of " + (chunk.end + 1)));
+		}
+	}
+
+}
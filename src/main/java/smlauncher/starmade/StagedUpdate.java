@@ -0,0 +1,188 @@
+package smlauncher.starmade;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the files of an update in a staging directory inside the install directory, and moves them into the
+ * install only once every file was downloaded. A failed update leaves the install unchanged, and the staged files are
+ * reused by the next attempt.
+ * <p>
+ * Before any file is moved, a journal listing all staged files is written and ends with a commit marker. Replaced
+ * files are moved to a backup directory, so a move that fails is rolled back by moving them back. If the launcher
+ * stops while moving files, the next update finishes the move from the journal.
+ */
+class StagedUpdate {
+
+	private static final String STAGING_DIR = ".update-staging";
+	private static final String BACKUP_DIR = ".update-backup";
+	private static final String JOURNAL_FILENAME = ".update-journal";
+	private static final String COMMIT_MARKER = "#commit";
+
+	private final File installDir;
+	private final File stagingDir;
+	private final File backupDir;
+	private final File journal;
+	private final Map<String, ChecksumFileEntry> staged = new ConcurrentHashMap<>();
+
+	StagedUpdate(File installDir) {
+		this.installDir = installDir;
+		stagingDir = new File(installDir, STAGING_DIR);
+		backupDir = new File(installDir, BACKUP_DIR);
+		journal = new File(installDir, JOURNAL_FILENAME);
+	}
+
+	/**
+	 * Gets the file a game file is staged in.
+	 *
+	 * @param relativePath the path of the game file relative to the install directory
+	 * @return the staged file
+	 */
+	File getStagedFile(String relativePath) {
+		return new File(stagingDir, relativePath);
+	}
+
+	/**
+	 * Adds a file that was downloaded and verified to the update.
+	 *
+	 * @param entry the file
+	 */
+	void add(ChecksumFileEntry entry) {
+		staged.put(entry.relativePath, entry);
+	}
+
+	boolean isEmpty() {
+		return staged.isEmpty();
+	}
+
+	/**
+	 * Finishes moving the files of an update that was interrupted after it was committed. An update that was not
+	 * committed yet is left staged.
+	 *
+	 * @throws IOException if the journal cannot be read or a file cannot be moved
+	 */
+	void recover() throws IOException {
+		if(!journal.exists()) return;
+		List<String> paths = Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8);
+		if(!paths.isEmpty() && COMMIT_MARKER.equals(paths.get(paths.size() - 1))) {
+			System.err.println("[UPDATER] Finishing interrupted update");
+			for(String path : paths.subList(0, paths.size() - 1)) moveIn(path);
+		}
+		finish();
+	}
+
+	/**
+	 * Moves all staged files into the install, replacing the installed files. If a file cannot be moved, the files
+	 * moved so far are moved back and the install is left unchanged.
+	 *
+	 * @param index the checksum index of the install, updated with the new files
+	 * @throws IOException if the update could not be committed
+	 */
+	void commit(ChecksumIndex index) throws IOException {
+		writeJournal();
+		List<String> moved = new ArrayList<>();
+		String current = null;
+		try {
+			for(String path : staged.keySet()) {
+				current = path;
+				moveIn(path);
+				moved.add(path);
+			}
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not install update, rolling back: " + exception.getMessage());
+			// The file that failed is only rolled back if its backup was moved back
+			boolean rolledBack = current == null || !new File(backupDir, current).exists();
+			for(int i = moved.size() - 1; i >= 0; i--) rolledBack &= moveOut(moved.get(i));
+			// Without a full rollback the journal and backups stay, so the next attempt finishes the update instead
+			if(rolledBack) finish();
+			throw exception;
+		}
+		// Moving keeps the file attributes, so the verified checksums stay valid
+		for(ChecksumFileEntry entry : staged.values()) {
+			index.update(entry.relativePath, new File(installDir, entry.relativePath), entry.checksum);
+		}
+		finish();
+		FileUtil.deleteDir(stagingDir);
+	}
+
+	private void writeJournal() throws IOException {
+		try(FileOutputStream stream = new FileOutputStream(journal);
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+			for(String path : staged.keySet()) {
+				out.write(path);
+				out.newLine();
+			}
+			out.write(COMMIT_MARKER);
+			out.newLine();
+			out.flush();
+			stream.getFD().sync();
+		}
+	}
+
+	private void moveIn(String path) throws IOException {
+		File stagedFile = getStagedFile(path);
+		if(!stagedFile.exists()) return; // Already moved
+		File installed = new File(installDir, path);
+		File backup = new File(backupDir, path);
+		if(installed.exists()) {
+			backup.getParentFile().mkdirs();
+			try {
+				move(installed, backup);
+			} catch(IOException exception) {
+				throw new IOException("File " + installed.getAbsolutePath() + " could not be replaced! Is it still in use?", exception);
+			}
+		}
+		installed.getParentFile().mkdirs();
+		try {
+			move(stagedFile, installed);
+		} catch(IOException exception) {
+			// Put the installed file back, so a failed move never leaves it missing
+			if(backup.exists() && !installed.exists()) {
+				try {
+					move(backup, installed);
+				} catch(IOException restoreException) {
+					exception.addSuppressed(restoreException);
+				}
+			}
+			throw exception;
+		}
+	}
+
+	private boolean moveOut(String path) {
+		File installed = new File(installDir, path);
+		File backup = new File(backupDir, path);
+		try {
+			move(installed, getStagedFile(path));
+			if(backup.exists()) move(backup, installed);
+			return true;
+		} catch(IOException exception) {
+			System.err.println("[UPDATER] Could not roll back " + path + ": " + exception.getMessage());
+			return false;
+		}
+	}
+
+	private void finish() throws IOException {
+		if(backupDir.exists()) FileUtil.deleteDir(backupDir);
+		Files.deleteIfExists(journal.toPath());
+	}
+
+	private static void move(File source, File destination) throws IOException {
+		try {
+			Files.move(source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException exception) {
+			Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
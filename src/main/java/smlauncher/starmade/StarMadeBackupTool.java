@@ -1,5 +1,7 @@
 package smlauncher.starmade;
 
+import smlauncher.LaunchSettings;
+
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
@@ -37,7 +39,11 @@ public class StarMadeBackupTool extends Observable {
 				file++;
 			};
 
-			if(databaseOnly) {
+			if(LaunchSettings.isIncrementalBackups()) {
+				// Only files that changed since the last backup are stored
+				String name = VersionContainer.VERSION + "-" + VersionContainer.build + "_" + backupName;
+				new IncrementalBackup(dir.getAbsoluteFile()).backUp(databaseOnly ? databasePath : "", name, filter, zipCallback, LaunchSettings.getBackupGenerations());
+			} else if(databaseOnly) {
 
 				// zip everything except backups themselves
 				File f = new File(installDir);
@@ -50,13 +56,13 @@ public class StarMadeBackupTool extends Observable {
 			}
 			setChanged();
 			notifyObservers("resetbars");
-			System.out.println("Copying Backup mFile to install dir...");
 			File backUpFile = new File(backup + ".tmp");
 			if(backUpFile.exists()) {
+				System.out.println("Moving Backup mFile to install dir...");
 				File file = new File(new File(installDir).getAbsolutePath() + File.separator + backup);
-				System.err.println("Copy to: " + file.getAbsolutePath());
-				DataUtil.copy(backUpFile, file);
-				backUpFile.delete();
+				System.err.println("Move to: " + file.getAbsolutePath());
+				// A rename if the working directory is on the same drive as the install
+				DataUtil.move(backUpFile, file);
 			}
 
 			if(removeOldVersion) {
@@ -0,0 +1,52 @@
+package smlauncher.starmade;
+
+import java.util.function.Supplier;
+
+/**
+ * The mirrors and patches of an update. Both are only looked up once the first file has to be downloaded, so an
+ * update restored from staged files or the object store does not wait on the network.
+ */
+final class UpdateSources {
+
+	private final Supplier<MirrorSelector> mirrorLoader;
+	private final String installedBuild;
+	private MirrorSelector mirrors;
+	private PatchIndex patches;
+	private boolean patchesLoaded;
+
+	/**
+	 * @param mirrorLoader   creates the mirror selector, called at most once
+	 * @param installedBuild the build to patch from, or null to download full files only
+	 */
+	UpdateSources(Supplier<MirrorSelector> mirrorLoader, String installedBuild) {
+		this.mirrorLoader = mirrorLoader;
+		this.installedBuild = installedBuild;
+	}
+
+	/**
+	 * Gets the mirrors, loading them the first time.
+	 *
+	 * @return the mirror selector
+	 */
+	synchronized MirrorSelector getMirrors() {
+		if(mirrors == null) mirrors = mirrorLoader.get();
+		return mirrors;
+	}
+
+	/**
+	 * Gets the patches from the installed build, loading the patch index the first time.
+	 *
+	 * @return the patch index, or null if there are no patches from the installed build
+	 */
+	synchronized PatchIndex getPatches() {
+		if(!patchesLoaded) {
+			patchesLoaded = true;
+			patches = PatchIndex.load(getMirrors(), installedBuild);
+			if(patches != null && GameUpdater.PRINT_DOWNLOAD_MILESTONES) {
+				System.err.println("[UPDATER] " + patches.size() + " files can be patched from build " + patches.installedBuild);
+			}
+		}
+		return patches;
+	}
+
+}
@@ -61,6 +61,23 @@ public class VersionContainer {
 		System.out.println("[VERSION] BUILD: " + build);
 	}
 
+	/**
+	 * Reads the build of an installed game without changing the loaded version.
+	 *
+	 * @param installDir the install directory
+	 * @return the build, or null if the game is not installed, is a dev build or the version file cannot be read
+	 */
+	public static String getInstalledBuild(String installDir) {
+		File f = new File(installDir, versionFile);
+		if(!f.exists() || new File(installDir, devVersionFile).exists()) return null;
+		try(BufferedReader b = new BufferedReader(new FileReader(f, StandardCharsets.UTF_8))) {
+			String[] st = b.readLine().split("#");
+			return st.length > 1 && !st[1].isBlank() ? st[1].trim() : null;
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
 	public static boolean equalVersion(Version version) {
 		return VERSION.compareTo(version) == 0;
 	}
@@ -0,0 +1,228 @@
+package smlauncher.util;
+
+import smlauncher.StarMadeLauncher;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Caches small files like version lists and checksum files on disk. Cached files are revalidated with conditional
+ * requests, so unchanged files are not downloaded again, and are used without asking the server while the server
+ * says they are fresh. If the server cannot be reached, the cached file is used even if it is out of date. Only the
+ * most recently used files are kept, since every build adds its own checksum file.
+ */
+public final class HttpCache {
+
+	private static final String CACHE_DIR = "http-cache";
+	private static final int TIMEOUT = 10000;
+	private static final int MAX_FILES = 64;
+	private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+	private HttpCache() {
+	}
+
+	/**
+	 * Gets a file, from the cache if it is unchanged on the server.
+	 *
+	 * @param url the URL of the file
+	 * @return the contents of the file
+	 * @throws IOException if the file could not be downloaded and is not cached
+	 */
+	public static byte[] get(String url) throws IOException {
+		File dir = getCacheDir();
+		if(dir == null) return download(url, new Properties(), new Properties());
+
+		String key = getKey(url);
+		File bodyFile = new File(dir, key + ".body");
+		File metaFile = new File(dir, key + ".meta");
+		Properties meta = readMeta(metaFile, bodyFile);
+		if(meta != null) bodyFile.setLastModified(System.currentTimeMillis());
+		if(meta != null && System.currentTimeMillis() < Long.parseLong(meta.getProperty("expires", "0"))) {
+			return Files.readAllBytes(bodyFile.toPath());
+		}
+
+		Properties response = new Properties();
+		byte[] body;
+		try {
+			body = download(url, meta != null ? meta : new Properties(), response);
+		} catch(IOException exception) {
+			if(meta == null) throw exception;
+			System.err.println("[CACHE] Could not reach server, using cached " + url + ": " + exception.getMessage());
+			return Files.readAllBytes(bodyFile.toPath());
+		}
+		if(body == null) {
+			// Not modified, so the cached file is still current
+			body = Files.readAllBytes(bodyFile.toPath());
+			response.putIfAbsent("etag", meta.getProperty("etag", ""));
+			response.putIfAbsent("lastModified", meta.getProperty("lastModified", ""));
+		} else {
+			write(bodyFile, body);
+		}
+		// The body is written first, so the validators never belong to an older body
+		response.setProperty("url", url);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		response.store(out, null);
+		write(metaFile, out.toByteArray());
+		evict(dir);
+		return body;
+	}
+
+	/**
+	 * Gets a file as text.
+	 *
+	 * @param url the URL of the file
+	 * @return a reader over the file's lines
+	 * @throws IOException if the file could not be downloaded and is not cached
+	 */
+	public static BufferedReader getReader(String url) throws IOException {
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(get(url)), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Gets a cached file without contacting the server.
+	 *
+	 * @param url the URL of the file
+	 * @return the contents of the file, or null if it is not cached
+	 */
+	public static byte[] getCached(String url) {
+		File dir = getCacheDir();
+		if(dir == null) return null;
+		String key = getKey(url);
+		File bodyFile = new File(dir, key + ".body");
+		try {
+			if(readMeta(new File(dir, key + ".meta"), bodyFile) == null) return null;
+			return Files.readAllBytes(bodyFile.toPath());
+		} catch(IOException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Requests a file, sending the validators of the cached copy.
+	 *
+	 * @return the contents, or null if the cached copy is still current
+	 */
+	private static byte[] download(String url, Properties cached, Properties response) throws IOException {
+		URLConnection openConnection = new URL(url).openConnection();
+		openConnection.setConnectTimeout(TIMEOUT);
+		openConnection.setReadTimeout(TIMEOUT);
+		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
+		openConnection.setRequestProperty("Accept-Encoding", "gzip");
+		String etag = cached.getProperty("etag", "");
+		String lastModified = cached.getProperty("lastModified", "");
+		if(!etag.isEmpty()) openConnection.setRequestProperty("If-None-Match", etag);
+		if(!lastModified.isEmpty()) openConnection.setRequestProperty("If-Modified-Since", lastModified);
+
+		if(openConnection instanceof HttpURLConnection) {
+			int status = ((HttpURLConnection) openConnection).getResponseCode();
+			if(status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				readValidators(openConnection, response);
+				return null;
+			}
+			if(status >= 400) throw new IOException("Server returned HTTP " + status + " for " + url);
+		}
+		readValidators(openConnection, response);
+		try(InputStream in = openConnection.getInputStream()) {
+			String encoding = openConnection.getContentEncoding();
+			if(encoding != null && (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip"))) {
+				return new GZIPInputStream(in).readAllBytes();
+			}
+			return in.readAllBytes();
+		}
+	}
+
+	private static void readValidators(URLConnection openConnection, Properties response) {
+		String etag = openConnection.getHeaderField("ETag");
+		String lastModified = openConnection.getHeaderField("Last-Modified");
+		if(etag != null) response.setProperty("etag", etag);
+		if(lastModified != null) response.setProperty("lastModified", lastModified);
+		String cacheControl = openConnection.getHeaderField("Cache-Control");
+		Matcher matcher = cacheControl != null ? MAX_AGE.matcher(cacheControl) : null;
+		if(matcher != null && matcher.find() && !cacheControl.contains("no-cache")) {
+			response.setProperty("expires", String.valueOf(System.currentTimeMillis() + Long.parseLong(matcher.group(1)) * 1000));
+		}
+	}
+
+	private static Properties readMeta(File metaFile, File bodyFile) {
+		if(!metaFile.exists() || !bodyFile.exists()) return null;
+		Properties meta = new Properties();
+		try(InputStream in = new FileInputStream(metaFile)) {
+			meta.load(in);
+			Long.parseLong(meta.getProperty("expires", "0"));
+			return meta;
+		} catch(IOException | NumberFormatException exception) {
+			return null;
+		}
+	}
+
+	private static void write(File file, byte[] body) throws IOException {
+		File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		Files.write(tempFile.toPath(), body);
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException exception) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Removes the least recently used files once more than the maximum are cached. Reading a file marks it as used.
+	 */
+	private static void evict(File dir) {
+		File[] bodies = dir.listFiles((d, name) -> name.endsWith(".body"));
+		if(bodies == null || bodies.length <= MAX_FILES) return;
+		Arrays.sort(bodies, Comparator.comparingLong(File::lastModified).reversed());
+		for(int i = MAX_FILES; i < bodies.length; i++) {
+			String key = bodies[i].getName().substring(0, bodies[i].getName().length() - ".body".length());
+			try {
+				// The metadata goes first, so a half removed entry is never used
+				Files.deleteIfExists(new File(dir, key + ".meta").toPath());
+				Files.deleteIfExists(bodies[i].toPath());
+			} catch(IOException exception) {
+				System.err.println("[CACHE] Could not remove cached file " + bodies[i] + ": " + exception.getMessage());
+			}
+		}
+	}
+
+	private static File getCacheDir() {
+		try {
+			File dir = new File(OperatingSystem.getAppDir(), CACHE_DIR);
+			if(!dir.isDirectory() && !dir.mkdirs()) return null;
+			return dir;
+		} catch(IOException exception) {
+			return null;
+		}
+	}
+
+	private static String getKey(String url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return HexFormat.of().formatHex(digest.digest(url.getBytes(StandardCharsets.UTF_8)));
+		} catch(NoSuchAlgorithmException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+}